@@ -0,0 +1,217 @@
+package com.github.troy.animatedlayers;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.support.annotation.FloatRange;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The same layers as {@link AnimatedLayerView}, offered as a drawable so they can be set as the background
+ * or foreground of any view without adding an extra view to the hierarchy.
+ * Layers are laid out for the drawable bounds, redraws and frame ticks go through {@link Drawable.Callback},
+ * so nothing runs once the drawable is detached from its callback,
+ * and the animations only run while the drawable is both started and visible.
+ */
+
+public class AnimatedLayerDrawable extends Drawable implements Animatable {
+    private static final int FRAME_DELAY = 16;
+
+    private final LayerEngine engine;
+    private boolean started = true;
+    private long invalidateTime = -1;
+    private final Runnable invalidateTask = new Runnable() {
+        @Override
+        public void run() {
+            invalidateTime = -1;
+            invalidateSelf();
+        }
+    };
+    private final Runnable frameTask = new Runnable() {
+        @Override
+        public void run() {
+            if (getCallback() != null) {
+                //Invalidates through the host, the next frame is scheduled by draw()
+                engine.tick();
+            }
+        }
+    };
+
+    public AnimatedLayerDrawable(@NonNull Context context) {
+        this(context.getResources());
+    }
+
+    public AnimatedLayerDrawable(@NonNull Resources resources) {
+        engine = new LayerEngine(resources, new LayerEngine.Host() {
+            @Override
+            public void invalidateLayers() {
+                invalidateSelf();
+            }
+
+            @Override
+            public void invalidateLayersDelayed(long delayMillis) {
+                long now = SystemClock.uptimeMillis();
+                long when = now + delayMillis;
+                //The earliest deadline wins, the redraw it triggers asks again for the later ones.
+                //A deadline in the past means the callback dropped the task, so it is scheduled again.
+                if (invalidateTime >= now && invalidateTime <= when) {
+                    return;
+                }
+                invalidateTime = when;
+                unscheduleSelf(invalidateTask);
+                scheduleSelf(invalidateTask, when);
+            }
+        }, false);
+    }
+
+    /**
+     * @see AnimatedLayerView#addLayer(LayerConfig)
+     * */
+    public int addLayer(LayerConfig layerConfig) {
+        return engine.addLayer(layerConfig);
+    }
+
+    /**
+     * @see AnimatedLayerView#addLayerList(ArrayList)
+     * */
+    public int addLayerList(ArrayList<LayerConfig> layerConfigs) {
+        return engine.addLayerList(layerConfigs);
+    }
+
+    /**
+     * @see AnimatedLayerView#replaceLayerList(ArrayList)
+     * */
+    public void replaceLayerList(ArrayList<LayerConfig> layerConfigs) {
+        engine.replaceLayerList(layerConfigs);
+    }
+
+    /**
+     * @see AnimatedLayerView#removeLayer(int)
+     * */
+    public void removeLayer(int layerIndex) {
+        engine.removeLayer(layerIndex);
+    }
+
+    /**
+     * @see AnimatedLayerView#prepare(List, int, int)
+     * */
+    public PreparedScene prepare(@NonNull List<LayerConfig> layerConfigs, int width, int height) {
+        return engine.prepare(layerConfigs, width, height);
+    }
+
+    /**
+     * @see AnimatedLayerView#swapScene(PreparedScene)
+     * */
+    public void swapScene(@NonNull PreparedScene scene) {
+        engine.swapScene(scene);
+    }
+
+    /**
+     * @see AnimatedLayerView#setScrollFraction(float)
+     * */
+    public void setScrollFraction(@FloatRange(from = 0, to = 1) float fraction) {
+        engine.setScrollFraction(fraction);
+    }
+
+    /**
+     * Release all the layers, the drawable can be filled again by adding layers afterwards.
+     * */
+    public void destroy() {
+        invalidateTime = -1;
+        unscheduleSelf(invalidateTask);
+        unscheduleSelf(frameTask);
+        engine.destroy();
+    }
+
+    @Override
+    public void start() {
+        started = true;
+        engine.setRunning(isVisible());
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        unscheduleSelf(frameTask);
+        engine.setRunning(false);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return started && isVisible();
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        if (changed) {
+            engine.setRunning(started && visible);
+        }
+        return changed;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        engine.setSize(bounds.width(), bounds.height());
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        Rect bounds = getBounds();
+        if (bounds.isEmpty()) {
+            return;
+        }
+        int saveCount = canvas.save();
+        canvas.clipRect(bounds);
+        canvas.translate(bounds.left, bounds.top);
+        engine.draw(canvas);
+        canvas.restoreToCount(saveCount);
+        scheduleNextFrame();
+    }
+
+    private void scheduleNextFrame() {
+        //Without a callback the drawable is not shown anywhere, so the tick loop ends here
+        if (!engine.isTicking() || getCallback() == null) {
+            return;
+        }
+        //The callback may have dropped a scheduled frame, e.g. when a view detaches, so always schedule again
+        unscheduleSelf(frameTask);
+        scheduleSelf(frameTask, SystemClock.uptimeMillis() + FRAME_DELAY);
+    }
+
+    @Override
+    public void setAlpha(@IntRange(from = 0, to = 255) int alpha) {
+        if (engine.getPaint().getAlpha() != alpha) {
+            engine.getPaint().setAlpha(alpha);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return engine.getPaint().getAlpha();
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        engine.getPaint().setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
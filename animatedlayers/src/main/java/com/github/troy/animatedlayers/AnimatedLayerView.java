@@ -1,29 +1,23 @@
 package com.github.troy.animatedlayers;
 
-import android.animation.TimeInterpolator;
-import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.Shader;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.ShapeDrawable;
 import android.os.Build;
-import android.support.annotation.DrawableRes;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by troy on 2018/4/10.
@@ -39,9 +33,10 @@ public class AnimatedLayerView extends View {
     public static final int ROTATE_CLOCKWISE = 5;
     public static final int ROTATE_ANTICLOCKWISE = 6;
     public static final int SCALE = 7; //Type of SCALE only supports repeatMode == REVERSE
+    public static final int PARTICLES = 8; //Type of PARTICLES draws many moving copies of the drawable, duration is the lifetime of each copy
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({NO_ANIMATION, TRANSLATE_START, TRANSLATE_END, TRANSLATE_UP, TRANSLATE_DOWN, ROTATE_CLOCKWISE, ROTATE_ANTICLOCKWISE, SCALE})
+    @IntDef({NO_ANIMATION, TRANSLATE_START, TRANSLATE_END, TRANSLATE_UP, TRANSLATE_DOWN, ROTATE_CLOCKWISE, ROTATE_ANTICLOCKWISE, SCALE, PARTICLES})
     public @interface AnimationType
     {
     }
@@ -72,10 +67,34 @@ public class AnimatedLayerView extends View {
     }
     /*****ScaleType ends*****/
 
-    private int vWidth;
-    private int vHeight;
-    private Paint paint;
-    private ArrayList<Layer> layerInfoList = new ArrayList<>();
+    /*****Layer Source*****/
+    public static final int SOURCE_BITMAP = 0;
+    public static final int SOURCE_GIF = 1;
+    public static final int SOURCE_SPRITE_SHEET = 2;
+    public static final int SOURCE_TILED = 3;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SOURCE_BITMAP, SOURCE_GIF, SOURCE_SPRITE_SHEET, SOURCE_TILED})
+    public @interface LayerSource
+    {
+    }
+    /*****Layer Source ends*****/
+
+    private LayerEngine engine;
+    private View scrollSource;
+    private final ViewTreeObserver.OnScrollChangedListener scrollSourceListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            if (scrollSource == null) {
+                return;
+            }
+            int range = scrollSource.getHeight();
+            if (scrollSource instanceof ViewGroup && ((ViewGroup) scrollSource).getChildCount() > 0) {
+                range = ((ViewGroup) scrollSource).getChildAt(0).getHeight() - scrollSource.getHeight();
+            }
+            setScrollOffset(scrollSource.getScrollY(), range);
+        }
+    };
 
     public AnimatedLayerView(Context context) {
         super(context);
@@ -99,8 +118,17 @@ public class AnimatedLayerView extends View {
     }
 
     private void init() {
-        paint = new Paint();
-        paint.setAntiAlias(true);
+        engine = new LayerEngine(getResources(), new LayerEngine.Host() {
+            @Override
+            public void invalidateLayers() {
+                invalidate();
+            }
+
+            @Override
+            public void invalidateLayersDelayed(long delayMillis) {
+                postInvalidateDelayed(delayMillis);
+            }
+        }, true);
     }
 
 
@@ -111,12 +139,7 @@ public class AnimatedLayerView extends View {
      * NOTE: This method will NOT check the duplication of the layerConfigs.
      * */
     public int addLayer(LayerConfig layerConfig) {
-        if (layerConfig == null) {
-            return -1;
-        }
-        layerInfoList.add(Layer.generate(layerConfig));
-        reconfiguration(false);
-        return layerInfoList.size() - 1;
+        return engine.addLayer(layerConfig);
     }
 
     /**
@@ -126,18 +149,7 @@ public class AnimatedLayerView extends View {
      * NOTE: This method will NOT check the duplication of the layerConfigs.
      * */
     public int addLayerList(ArrayList<LayerConfig> layerConfigs) {
-        if (layerConfigs == null || layerConfigs.isEmpty()) {
-            return -1;
-        }
-        final int resultIndex = layerInfoList.size();
-        for (LayerConfig config : layerConfigs) {
-            if (config == null) {
-                continue;
-            }
-            layerInfoList.add(Layer.generate(config));
-        }
-        reconfiguration(false);
-        return resultIndex;
+        return engine.addLayerList(layerConfigs);
     }
 
     /**
@@ -146,28 +158,7 @@ public class AnimatedLayerView extends View {
      *                     totally replace the current layers if there was any.
      * */
     public void replaceLayerList(ArrayList<LayerConfig> layerConfigs) {
-        if (layerConfigs == null || layerConfigs.isEmpty()) {
-            return;
-        }
-        if (layerInfoList != null && !layerInfoList.isEmpty()) {
-            for (Layer layer : layerInfoList) {
-                if (layer == null) {
-                    continue;
-                }
-                layer.destroy();
-            }
-            layerInfoList.clear();
-        }
-        if (layerInfoList == null) {
-            layerInfoList = new ArrayList<>();
-        }
-        for (LayerConfig config : layerConfigs) {
-            if (config == null) {
-                continue;
-            }
-            layerInfoList.add(Layer.generate(config));
-        }
-        reconfiguration(true);
+        engine.replaceLayerList(layerConfigs);
     }
 
     /**
@@ -175,432 +166,108 @@ public class AnimatedLayerView extends View {
      *                   which should be returned by {@link #addLayer(LayerConfig)}}
      * */
     public void removeLayer(int layerIndex) {
-        if (layerInfoList == null || layerIndex < 0 || layerIndex >= layerInfoList.size()) {
-            return;
-        }
-        Layer layer = layerInfoList.remove(layerIndex);
-        layer.destroy();
-        invalidate();
+        engine.removeLayer(layerIndex);
     }
 
-    @Override
-    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        super.onSizeChanged(w, h, oldw, oldh);
-
-        if(w == oldw && h == oldh) return;
-
-        vWidth = w;
-        vHeight = h;
-
-        reconfiguration(true);
+    /**
+     * @param layerConfigs Config list for the layers of the scene.
+     * @param width The width the scene is laid out for, normally the current or the coming width of this view.
+     * @param height The height the scene is laid out for.
+     * @return A scene which is decoded and laid out on a background thread,
+     *         and can be installed by {@link #swapScene(PreparedScene)} once ready.
+     *         A layer failing to decode fails the whole scene, see {@link PreparedScene#isFailed()}.
+     * NOTE: Nothing of the current layers is touched until the scene is swapped in.
+     * */
+    public PreparedScene prepare(@NonNull List<LayerConfig> layerConfigs, int width, int height) {
+        return engine.prepare(layerConfigs, width, height);
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        if (layerInfoList != null && !layerInfoList.isEmpty()) {
-            canvas.save();
-            for (Layer info : layerInfoList) {
-                if (info == null || !info.configured) {
-                    continue;
-                }
-                info.layerShader.setLocalMatrix(info.getMatrix());
-                paint.setShader(info.layerShader);
-                if (info.animationType == AnimatedLayerView.ROTATE_CLOCKWISE
-                        || info.animationType == AnimatedLayerView.ROTATE_ANTICLOCKWISE) {
-                    canvas.drawCircle(info.targetRect.centerX(), info.targetRect.centerY(),
-                            Math.min(info.targetRect.width(), info.targetRect.height())/2, paint);
-                } else {
-                    canvas.drawRect(info.targetRect, paint);
-                }
-            }
-            canvas.restore();
-        }
+    /**
+     * @param scene A scene returned by {@link #prepare(List, int, int)}, which totally replaces the current layers
+     *              in one frame. If the scene is not prepared yet, it will be swapped in as soon as it is.
+     * NOTE: Layers are laid out again on the UI thread only if the scene size differs from the view size,
+     *       while the sources are never decoded again.
+     * */
+    public void swapScene(@NonNull PreparedScene scene) {
+        engine.swapScene(scene);
     }
 
-    @Override
-    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
-        super.onVisibilityChanged(changedView, visibility);
-        if (layerInfoList != null && !layerInfoList.isEmpty()) {
-            for (Layer info : layerInfoList) {
-                if (info == null || !info.configured) {
-                    continue;
-                }
-                if (visibility == VISIBLE) {
-                    info.tryStart();
-                } else {
-                    info.tryEnd();
-                }
-            }
-        }
+    /**
+     * @param fraction The phase applied to all the scroll driven layers {@link LayerConfig.Builder#scrollDriven(boolean)},
+     *                 0 is the initial position and 1 means the whole animationInterval has been passed.
+     * NOTE: The view is only invalidated when the fraction actually changes, so there is no cost while idle.
+     * */
+    public void setScrollFraction(@FloatRange(from = 0, to = 1) float fraction) {
+        engine.setScrollFraction(fraction);
     }
 
-    @Override
-    protected void onDetachedFromWindow() {
-        super.onDetachedFromWindow();
-        destroy();
+    /**
+     * @param offset Current scroll offset in pixels, e.g. RecyclerView#computeVerticalScrollOffset()
+     *               or the negated verticalOffset of AppBarLayout.OnOffsetChangedListener.
+     * @param range The offset at which the scroll driven layers reach the end of their interval,
+     *              e.g. AppBarLayout#getTotalScrollRange().
+     * */
+    public void setScrollOffset(int offset, int range) {
+        setScrollFraction(range <= 0 ? 0f : offset / (float) range);
     }
 
-    private void destroy() {
-        if (layerInfoList != null && !layerInfoList.isEmpty()) {
-            for (Layer info : layerInfoList) {
-                if (info == null) {
-                    continue;
-                }
-                info.destroy();
-            }
-            layerInfoList.clear();
-        }
+    public float getScrollFraction() {
+        return engine.getScrollFraction();
     }
 
-    private void layoutLayer(final Layer info, float extraSpaceXPercentageForScale, float extraSpaceYPercentageForScale) {
-        //Config Matrix and target Rect to draw
-        info.targetRect = new Rect(0, 0, vWidth, vHeight);
-        if (info.layerGravity == CENTER) {
-            int widthOffset = (vWidth - info.drawableWidth)/2;
-            int heightOffset = (vHeight - info.drawableHeight)/2;
-            if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
-                int rectX = vWidth - info.drawableWidth > 0 ? (vWidth - info.drawableWidth)/2 : 0;
-                int rectY = vHeight - info.drawableHeight > 0 ? (vHeight - info.drawableHeight)/2 : 0;
-                info.targetRect = new Rect(rectX, rectY, vWidth - rectX, vHeight - rectY);
-            }
-            float scaleX = vWidth / (info.drawableWidth*1f);
-            float scaleY = vHeight / (info.drawableHeight*1f);
-            //Only scale down, no scale up for gravity == CENTER
-            if (info.layerScaleType == NO_SCALE) {
-                info.translateX = widthOffset;
-                info.translateY = heightOffset;
-            } else if (info.layerScaleType == FITXY) {
-                info.scaleX = Math.min(1, scaleX);
-                info.scaleY = Math.min(1, scaleY);
-                info.translateX = widthOffset;
-                info.translateY = heightOffset;
-            } else {
-                float actualScaleX = Math.min(1, scaleX);
-                float actualScaleY = Math.min(1, scaleY);
-                float actualScale = info.layerScaleType == CENTER_INSIDE ?
-                        Math.min(actualScaleX, actualScaleY) : Math.max(actualScaleX, actualScaleY);
-                info.scaleX = actualScale;
-                info.scaleY = actualScale;
-                info.translateX = widthOffset;
-                info.translateY = heightOffset;
-            }
-        } else if (info.layerGravity == FILL_PARENT){
-            if(info.layerScaleType != NO_SCALE) {
-                float scaleX = vWidth / (info.drawableWidth*1f);
-                float scaleY = vHeight / (info.drawableHeight*1f);
-                if (info.layerScaleType == FITXY) {
-                    info.scaleX = scaleX;
-                    info.scaleY = scaleY;
-                } else {
-                    float actualScale = info.layerScaleType == CENTER_INSIDE ?
-                            Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
-                    info.scaleX = actualScale;
-                    info.scaleY = actualScale;
-                }
-            }
-        } else {
-            if ((info.layerGravity & CENTER_HORIZONTAL) == CENTER_HORIZONTAL) {
-                int widthOffset = vWidth - info.drawableWidth > 0 ? (vWidth - info.drawableWidth)/2 : 0;
-                info.targetRect.top = info.marginTop;
-                info.translateX += widthOffset;
-            } else if ((info.layerGravity & CENTER_VERTICAL) == CENTER_VERTICAL) {
-                int heightOffset = vHeight - info.drawableHeight > 0 ? (vHeight - info.drawableHeight)/2 : 0;
-                info.targetRect.left = info.marginStart;
-                info.translateY += heightOffset;
-            }
-            if ((info.layerGravity & ALIGN_TOP) == ALIGN_TOP) {
-                if (info.animationType != TRANSLATE_UP && info.animationType != TRANSLATE_DOWN) {
-                    info.targetRect.top = info.marginTop;
-                    info.targetRect.bottom = (int) Math.min(info.drawableHeight*extraSpaceYPercentageForScale + info.marginTop, vHeight);
-                }
-                info.translateY += info.marginTop;
-            } else if ((info.layerGravity & ALIGN_BOTTOM) == ALIGN_BOTTOM) {
-                int rectOffset = vHeight - info.drawableHeight*extraSpaceYPercentageForScale > 0 ?
-                        (int) (vHeight - info.drawableHeight*extraSpaceYPercentageForScale) : 0;
-                if (info.animationType != TRANSLATE_UP && info.animationType != TRANSLATE_DOWN) {
-                    info.targetRect.top = rectOffset - info.marginBottom;
-                    info.targetRect.bottom = vHeight - info.marginBottom;
-                }
-                int transOffset = vHeight - info.drawableHeight > 0 ? vHeight - info.drawableHeight : 0;
-                info.translateY += transOffset - info.marginBottom;
-            }
-            if ((info.layerGravity & ALIGN_START) == ALIGN_START) {
-                if (info.animationType != TRANSLATE_START && info.animationType != TRANSLATE_END) {
-                    info.targetRect.left = info.marginStart;
-                    info.targetRect.right = (int) Math.min(info.drawableWidth*extraSpaceXPercentageForScale + info.marginStart, vWidth);
-                }
-                info.translateX += info.marginStart;
-            } else if ((info.layerGravity & ALIGN_END) == ALIGN_END) {
-                int rectOffset = vWidth - info.drawableWidth*extraSpaceXPercentageForScale > 0 ?
-                        (int) (vWidth - info.drawableWidth*extraSpaceXPercentageForScale) : 0;
-                if (info.animationType != TRANSLATE_START && info.animationType != TRANSLATE_END) {
-                    info.targetRect.left = rectOffset - info.marginEnd;
-                    info.targetRect.right = vWidth - info.marginEnd;
-                }
-                int transOffset = vWidth - info.drawableWidth > 0 ? vWidth - info.drawableWidth : 0;
-                info.translateX += transOffset - info.marginEnd;
+    /**
+     * @param source A view scrolling by its own scrollY, such as ScrollView or NestedScrollView,
+     *               whose first child height minus its own height is regarded as the scroll range.
+     *               Pass null to detach the current one.
+     * NOTE: For RecyclerView or AppBarLayout, forward their scroll callbacks to {@link #setScrollOffset(int, int)} instead.
+     * */
+    public void attachScrollSource(@Nullable View source) {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollSourceListener);
+        scrollSource = source;
+        if (scrollSource != null) {
+            //Before attaching, the listener is registered by onAttachedToWindow, otherwise it would be added twice
+            if (ViewCompat.isAttachedToWindow(this)) {
+                getViewTreeObserver().addOnScrollChangedListener(scrollSourceListener);
             }
+            scrollSourceListener.onScrollChanged();
         }
     }
 
-    private void configLayerAnimator(final Layer info) {
-        //Config Animator
-        if (info.animationInterval == LayerConfig.ANIMATION_INTERVAL_AUTO && info.animationType != NO_ANIMATION) {
-            if (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END) {
-                int interval = Math.abs(info.drawableWidth - vWidth);
-                if(interval != 0) {
-                    info.valueAnimator = ValueAnimator.ofInt(0, interval);
-                    info.animationInterval = interval;
-                }
-            } else if (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN) {
-                int interval = Math.abs(info.drawableHeight - vHeight);
-                if(interval != 0) {
-                    info.valueAnimator = ValueAnimator.ofInt(0, interval);
-                    info.animationInterval = interval;
-                }
-            } else if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
-                info.valueAnimator = ValueAnimator.ofFloat(info.fromValue, 360 + info.fromValue);
-                info.animationInterval = 360;
-            } else if (info.animationType == SCALE) {
-                info.valueAnimator = ValueAnimator.ofFloat(0f, 1f);
-                info.animationInterval = 1;
-            }
-            if (info.valueAnimator != null) {
-                info.valueAnimator.setDuration(info.duration);
-                info.valueAnimator.setRepeatMode(info.repeatMode);
-                info.valueAnimator.setRepeatCount(info.repeatCount);
-                info.valueAnimator.setInterpolator(info.interpolator);
-            }
-        }
-
-        if (info.valueAnimator != null) {
-            info.valueAnimator.cancel();
-            info.valueAnimator.removeAllUpdateListeners();
-            if(info.animationType != NO_ANIMATION) {
-                info.valueAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                    float lastFraction = 0f;
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animation) {
-                        float fraction = animation.getAnimatedFraction();
-                        float change;
-                        if (animation.getRepeatMode() == ValueAnimator.RESTART) {
-                            if (fraction > lastFraction) {
-                                change = (fraction - lastFraction) * info.animationInterval;
-                            } else {
-                                change = fraction * info.animationInterval;
-                            }
-                        } else {
-                            change = (fraction - lastFraction) * info.animationInterval;
-                            System.out.println(animation.getAnimatedValue());
-                            if (info.animationType == SCALE) {
-                                if (fraction < lastFraction) {
-                                    info.scaleX = info.toScaleX + info.baseScaleX * ((Float) animation.getAnimatedValue() - (info.fromValue + info.animationInterval));
-                                    info.scaleY = info.toScaleY + info.baseScaleY * ((Float) animation.getAnimatedValue() - (info.fromValue + info.animationInterval));
-                                } else {
-                                    info.scaleX = info.fromScaleX + info.baseScaleX * ((Float) animation.getAnimatedValue() - info.fromValue);
-                                    info.scaleY = info.fromScaleY + info.baseScaleY * ((Float) animation.getAnimatedValue() - info.fromValue);
-                                }
-                            }
-                        }
-                        lastFraction = fraction;
-
-                        if (info.animationType == TRANSLATE_START) {
-                            info.translateX -= change;
-                        } else if (info.animationType == TRANSLATE_END) {
-                            info.translateX += change;
-                        } else if (info.animationType == TRANSLATE_UP) {
-                            info.translateY -= change;
-                        } else if (info.animationType == TRANSLATE_DOWN) {
-                            info.translateY += change;
-                        } else if (info.animationType == ROTATE_CLOCKWISE) {
-                            info.rotateDegree += change;
-                        } else if (info.animationType == ROTATE_ANTICLOCKWISE) {
-                            info.rotateDegree -= change;
-                        }
-
-                        invalidate();
-                    }
-                });
-                info.valueAnimator.start();
-            }
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (scrollSource != null) {
+            getViewTreeObserver().removeOnScrollChangedListener(scrollSourceListener);
+            getViewTreeObserver().addOnScrollChangedListener(scrollSourceListener);
         }
     }
 
-    private void configLayerInfo(@NonNull final Layer info) {
-        //Config bitmap shader
-        if(info.layerShader == null) {
-            Bitmap bitmap = ((BitmapDrawable)getResources().getDrawable(info.resId)).getBitmap();
-            info.drawableWidth = bitmap.getWidth();
-            info.drawableHeight = bitmap.getHeight();
-            Shader.TileMode x = (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END)
-                    ? ((info.drawableWidth < vWidth) ? Shader.TileMode.CLAMP : Shader.TileMode.REPEAT) : Shader.TileMode.CLAMP;
-            Shader.TileMode y = (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN)
-                    ? ((info.drawableHeight < vHeight) ? Shader.TileMode.CLAMP : Shader.TileMode.REPEAT) : Shader.TileMode.CLAMP;
-            info.layerShader = new BitmapShader(bitmap, x, y);
-        }
-        //Set initial value
-        float extraSpaceXPercentageForScale = 1f;
-        float extraSpaceYPercentageForScale = 1f;
-        if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
-            if (info.fromValue != 0) {
-                info.rotateDegree += info.fromValue;
-            }
-        } else if (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END) {
-            if (info.fromValue != 0) {
-                info.translateX += info.fromValue;
-            }
-        } else if (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN) {
-            if (info.fromValue != 0) {
-                info.translateY += info.fromValue;
-            }
-        } else if (info.animationType == SCALE) {
-            info.baseScaleX = info.scaleX;
-            info.baseScaleY = info.scaleY;
-            info.fromScaleX = info.scaleX * info.fromValue;
-            info.fromScaleY = info.scaleY * info.fromValue;
-            info.toScaleX = info.scaleX * (info.fromValue + info.animationInterval);
-            info.toScaleY = info.scaleY * (info.fromValue + info.animationInterval);
-            extraSpaceXPercentageForScale = Math.max(1, Math.max(info.fromScaleX, info.toScaleX));
-            extraSpaceYPercentageForScale = Math.max(1, Math.max(info.fromScaleY, info.toScaleY));
-        }
-
-        layoutLayer(info, extraSpaceXPercentageForScale, extraSpaceYPercentageForScale);
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
 
-        configLayerAnimator(info);
+        if(w == oldw && h == oldh) return;
 
-        info.configured = true;
+        engine.setSize(w, h);
     }
 
-    /**
-     * @param forceConfigAll true means the view params have changed and all layers need to be reconfigured.
-     *                       false means only some of the layers need reconfiguration or new layer was added.
-     * */
-    private void reconfiguration(boolean forceConfigAll) {
-        if (vWidth <= 0 || vHeight <= 0) { //View is not ready yet
-            return;
-        }
-        if (layerInfoList.isEmpty()) { //No layers added
-            return;
-        }
-        for (Layer info : layerInfoList) {
-            if (info ==  null || (info.configured && !forceConfigAll)) {
-                continue;
-            }
-            configLayerInfo(info);
-        }
+    @Override
+    protected void onDraw(Canvas canvas) {
+        engine.draw(canvas);
     }
 
-    private static class Layer {
-        @AnimationType int animationType;
-        @DrawableRes
-        int resId;
-        @LayerScaleType int layerScaleType;
-        int layerGravity;
-        int marginStart;
-        int marginTop;
-        int marginEnd;
-        int marginBottom;
-        BitmapShader layerShader;
-        int drawableWidth;
-        int drawableHeight;
-        Rect targetRect;
-        ValueAnimator valueAnimator;
-        float animationInterval;
-        float fromValue;
-        int duration;
-        int repeatMode = ValueAnimator.RESTART;
-        int repeatCount = ValueAnimator.INFINITE;
-        TimeInterpolator interpolator = null;
-        boolean configured = false;
-
-        Matrix matrix;
-        float translateX = 0f;
-        float translateY = 0f;
-        float rotateDegree = 0f;
-        float scaleX = 1f;
-        float scaleY = 1f;
-        float baseScaleX = 1f;
-        float baseScaleY = 1f;
-        float fromScaleX = 1f;
-        float fromScaleY = 1f;
-        float toScaleX = 1f;
-        float toScaleY = 1f;
-        float scalePivotX = -1f;
-        float scalePivotY = -1f;
-
-
-        public static Layer generate(LayerConfig config) {
-            Layer info = new Layer();
-            info.animationType = config.getAnimationType();
-            info.layerGravity = config.getLayerGravity();
-            info.layerScaleType = config.getLayerScaleType();
-            info.resId = config.getDrawableResId();
-            info.marginStart = config.getMarginStart();
-            info.marginTop = config.getMarginTop();
-            info.marginEnd = config.getMarginEnd();
-            info.marginBottom = config.getMarginBottom();
-            info.scalePivotX = config.getScalePivotX();
-            info.scalePivotY = config.getScalePivotY();
-            info.matrix = new Matrix();
-            if (info.animationType != NO_ANIMATION) {
-                if (config.getAnimationInterval() != LayerConfig.ANIMATION_INTERVAL_AUTO) {
-                    info.valueAnimator = ValueAnimator.ofFloat(config.getFromValue(), config.getFromValue() + config.getAnimationInterval());
-                    if(config.getDuration() > 0) info.valueAnimator.setDuration(config.getDuration());
-                    info.valueAnimator.setRepeatMode(config.getRepeatMode());
-                    info.valueAnimator.setRepeatCount(config.getRepeatCount());
-                    info.valueAnimator.setInterpolator(config.getTimeInterpolator());
-                }
-                info.animationInterval = config.getAnimationInterval();
-                info.fromValue = config.getFromValue();
-                info.duration = config.getDuration();
-                info.repeatMode = config.getRepeatMode();
-                info.repeatCount = config.getRepeatCount();
-                info.interpolator = config.getTimeInterpolator();
-            }
-
-            return info;
-        }
-
-        private void destroy() {
-            if(valueAnimator != null) {
-                valueAnimator.cancel();
-                valueAnimator = null;
-            }
-            matrix = null;
-            layerShader = null;
-            configured = false;
-        }
-
-        private Matrix getMatrix() {
-            matrix.reset();
-            matrix.setTranslate(translateX, translateY);
-            float pivotX = scalePivotX == -1 ? targetRect.centerX() : targetRect.left + targetRect.width()*scalePivotX;
-            float pivotY = scalePivotY == -1 ? targetRect.centerY() : targetRect.top + targetRect.height()*scalePivotY;
-            matrix.postScale(scaleX, scaleY, pivotX, pivotY);
-            matrix.postRotate(rotateDegree, targetRect.centerX(), targetRect.centerY());
-            return matrix;
-        }
-
-        /**
-         * @return true if the contained value animator was started by this action, otherwise false.
-         * */
-        private boolean tryStart() {
-            if (valueAnimator != null && !valueAnimator.isStarted()) {
-                valueAnimator.start();
-                return true;
-            }
-            return false;
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (engine != null) { //May be dispatched while inflating, before init()
+            engine.setRunning(visibility == VISIBLE);
         }
+    }
 
-        /**
-         * @return true if the contained value animator was ended by this action, otherwise false.
-         * */
-        private boolean tryEnd() {
-            if (valueAnimator != null && valueAnimator.isStarted()) {
-                valueAnimator.end();
-                return true;
-            }
-            return false;
-        }
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getViewTreeObserver().removeOnScrollChangedListener(scrollSourceListener);
+        engine.destroy();
     }
 }
@@ -0,0 +1,85 @@
+package com.github.troy.animatedlayers;
+
+import android.animation.TimeInterpolator;
+import android.support.annotation.IntRange;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.WeakHashMap;
+
+/**
+ * A {@link TimeInterpolator} which samples another interpolator into a fixed-size lookup table once,
+ * and answers every later query with a linear lookup between two neighbouring entries.
+ * Tables are cached per (interpolator, resolution), so all the layers and views that use the same
+ * interpolator instance share a single table.
+ */
+
+public final class BakedInterpolator implements TimeInterpolator {
+    public static final int DEFAULT_RESOLUTION = 256;
+    public static final int MIN_RESOLUTION = 2;
+
+    private static final WeakHashMap<TimeInterpolator, SparseArray<BakedInterpolator>> cache = new WeakHashMap<>();
+
+    private final float[] table;
+    private final int lastIndex;
+
+    private BakedInterpolator(TimeInterpolator source, int resolution) {
+        table = new float[resolution];
+        lastIndex = resolution - 1;
+        for (int i = 0; i <= lastIndex; i++) {
+            table[i] = source.getInterpolation(i / (float) lastIndex);
+        }
+    }
+
+    /**
+     * Same as {@link #bake(TimeInterpolator, int)} with {@link #DEFAULT_RESOLUTION}.
+     * */
+    @Nullable
+    public static TimeInterpolator bake(@Nullable TimeInterpolator source) {
+        return bake(source, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * @param source The interpolator to be sampled.
+     * @param resolution Number of entries in the lookup table, values less than {@link #MIN_RESOLUTION} are raised to it.
+     * @return The shared baked table for the source, or the source itself if it is null or already baked.
+     * */
+    @Nullable
+    public static TimeInterpolator bake(@Nullable TimeInterpolator source, @IntRange(from = MIN_RESOLUTION) int resolution) {
+        if (source == null || source instanceof BakedInterpolator) {
+            return source;
+        }
+        resolution = Math.max(MIN_RESOLUTION, resolution);
+        synchronized (cache) {
+            SparseArray<BakedInterpolator> tables = cache.get(source);
+            if (tables == null) {
+                tables = new SparseArray<>(1);
+                cache.put(source, tables);
+            }
+            BakedInterpolator baked = tables.get(resolution);
+            if (baked == null) {
+                baked = new BakedInterpolator(source, resolution);
+                tables.put(resolution, baked);
+            }
+            return baked;
+        }
+    }
+
+    public int getResolution() {
+        return table.length;
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        if (input <= 0f) {
+            return table[0];
+        }
+        if (input >= 1f) {
+            return table[lastIndex];
+        }
+        float position = input * lastIndex;
+        int index = (int) position;
+        float start = table[index];
+        return start + (table[index + 1] - start) * (position - index);
+    }
+}
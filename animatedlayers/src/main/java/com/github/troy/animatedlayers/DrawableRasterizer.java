@@ -0,0 +1,112 @@
+package com.github.troy.animatedlayers;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+import android.util.TypedValue;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Draws non-bitmap drawables, such as vectors, shapes and nine-patches, into a bitmap once at the exact size
+ * a layer is laid out with, so they cost no more per frame than a plain bitmap.
+ * Results are cached by the resolved resource file, size and the configuration they depend on,
+ * and shared by all the layers of all the hosts.
+ * The intrinsic sizes are cached as well, so a cached drawable is never inflated again.
+ */
+
+final class DrawableRasterizer {
+    private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(
+            (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    //Guarded by itself
+    private static final HashMap<String, int[]> intrinsicSizes = new HashMap<>();
+
+    private DrawableRasterizer() {
+    }
+
+    /**
+     * Can be called on any thread, only the resource value is read, nothing is inflated.
+     * @return true if the resource is a plain bitmap file, which is drawn as it is instead of being rasterized.
+     * */
+    static boolean isBitmapResource(Resources resources, @DrawableRes int resId) {
+        TypedValue value = new TypedValue();
+        resources.getValue(resId, value, true);
+        if (value.string == null) { //E.g. a color
+            return false;
+        }
+        String file = value.string.toString().toLowerCase(Locale.US);
+        if (file.endsWith(".9.png")) {
+            return false;
+        }
+        return file.endsWith(".png") || file.endsWith(".jpg") || file.endsWith(".jpeg")
+                || file.endsWith(".webp") || file.endsWith(".gif") || file.endsWith(".bmp");
+    }
+
+    /**
+     * @return The intrinsic {width, height} of the resource if it was rasterized before, otherwise null.
+     * */
+    @Nullable
+    static int[] cachedIntrinsicSize(Resources resources, @DrawableRes int resId) {
+        synchronized (intrinsicSizes) {
+            return intrinsicSizes.get(variantKey(resources, resId));
+        }
+    }
+
+    /**
+     * @return The intrinsic {width, height} of the loaded drawable, which is remembered for {@link #cachedIntrinsicSize(Resources, int)}.
+     * */
+    static int[] cacheIntrinsicSize(Resources resources, @DrawableRes int resId, Drawable drawable) {
+        int[] size = {drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight()};
+        synchronized (intrinsicSizes) {
+            intrinsicSizes.put(variantKey(resources, resId), size);
+        }
+        return size;
+    }
+
+    /**
+     * Can be called on any thread.
+     * @param drawable An already loaded instance of the resource, or null to load it when not cached.
+     * */
+    static Bitmap rasterize(Resources resources, @DrawableRes int resId, @Nullable Drawable drawable, int width, int height) {
+        String key = variantKey(resources, resId) + ":" + width + "x" + height;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        if (drawable == null) {
+            drawable = resources.getDrawable(resId);
+        }
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(new Canvas(bitmap));
+        cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * @return A key telling apart the variants of a resource, e.g. drawable-night or the mirrored drawing of an RTL layout,
+     *         so nothing drawn for the previous configuration is served after a configuration change.
+     * */
+    private static String variantKey(Resources resources, @DrawableRes int resId) {
+        TypedValue value = new TypedValue();
+        resources.getValue(resId, value, true);
+        Configuration configuration = resources.getConfiguration();
+        int layoutDirection = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                ? configuration.getLayoutDirection() : 0;
+        //The night bits count even for the same file, as its colors may resolve to night variants
+        return resId + ":" + value.string + "@" + resources.getDisplayMetrics().densityDpi
+                + ":" + (configuration.uiMode & Configuration.UI_MODE_NIGHT_MASK) + ":" + layoutDirection;
+    }
+}
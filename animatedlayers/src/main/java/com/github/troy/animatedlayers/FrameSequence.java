@@ -0,0 +1,169 @@
+package com.github.troy.animatedlayers;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Movie;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.support.annotation.DrawableRes;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of the frames of an animated layer. Only the size and the frame duration are known up front,
+ * the resource itself is opened lazily by {@link #decode(long, Bitmap)} on {@link LayerWorker}.
+ * Frames are addressed by tick, which is the number of frame durations since the playback started,
+ * so a sequence decides on its own how to loop.
+ */
+
+abstract class FrameSequence {
+    //GIF frames have no fixed rate, so the movie is sampled at 25fps
+    static final int GIF_SAMPLE_INTERVAL = 40;
+
+    final int width;
+    final int height;
+    final int frameDuration;
+
+    FrameSequence(int width, int height, int frameDuration) {
+        this.width = width;
+        this.height = height;
+        this.frameDuration = Math.max(1, frameDuration);
+    }
+
+    /**
+     * Called on {@link LayerWorker} only, the result must be drawn into the given bitmap
+     * which is exactly {@link #width} x {@link #height}.
+     * @return false if the frame could not be decoded.
+     * */
+    abstract boolean decode(long tick, Bitmap into);
+
+    /**
+     * Called on {@link LayerWorker} only, after which no more frames will be requested.
+     * */
+    abstract void release();
+
+    static FrameSequence gif(Resources resources, @DrawableRes int resId) {
+        //Logical screen size lives in the first 10 bytes, no need to parse the whole movie here
+        byte[] header = new byte[10];
+        InputStream inputStream = resources.openRawResource(resId);
+        try {
+            int read = 0;
+            while (read < header.length) {
+                int count = inputStream.read(header, read, header.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            if (read < header.length || header[0] != 'G' || header[1] != 'I' || header[2] != 'F') {
+                throw new IllegalArgumentException("Resource " + resId + " is not a GIF");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Resource " + resId + " can not be read", e);
+        } finally {
+            RegionDecoders.closeQuietly(inputStream);
+        }
+        int width = (header[6] & 0xff) | ((header[7] & 0xff) << 8);
+        int height = (header[8] & 0xff) | ((header[9] & 0xff) << 8);
+        return new GifSequence(resources, resId, width, height);
+    }
+
+    static FrameSequence spriteSheet(Resources resources, @DrawableRes int resId,
+                                     int frameWidth, int frameHeight, int frameCount, int frameDuration) {
+        return new SpriteSheetSequence(resources, resId, frameWidth, frameHeight, frameCount, frameDuration);
+    }
+
+    private static class GifSequence extends FrameSequence {
+        private final Resources resources;
+        private final int resId;
+        private Movie movie;
+        private Canvas canvas;
+
+        GifSequence(Resources resources, int resId, int width, int height) {
+            super(width, height, GIF_SAMPLE_INTERVAL);
+            this.resources = resources;
+            this.resId = resId;
+        }
+
+        @Override
+        boolean decode(long tick, Bitmap into) {
+            if (movie == null) {
+                InputStream inputStream = resources.openRawResource(resId);
+                movie = Movie.decodeStream(inputStream);
+                RegionDecoders.closeQuietly(inputStream);
+                if (movie == null) {
+                    return false;
+                }
+                canvas = new Canvas();
+            }
+            int duration = movie.duration();
+            movie.setTime(duration > 0 ? (int) ((tick * frameDuration) % duration) : 0);
+            canvas.setBitmap(into);
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            movie.draw(canvas, 0, 0);
+            canvas.setBitmap(null);
+            return true;
+        }
+
+        @Override
+        void release() {
+            movie = null;
+            canvas = null;
+        }
+    }
+
+    private static class SpriteSheetSequence extends FrameSequence {
+        private final Resources resources;
+        private final int resId;
+        private final int frameCount;
+        private final Rect region = new Rect();
+        private final BitmapFactory.Options options = new BitmapFactory.Options();
+        private BitmapRegionDecoder decoder;
+        private int columns;
+        private Canvas canvas;
+
+        SpriteSheetSequence(Resources resources, int resId, int frameWidth, int frameHeight, int frameCount, int frameDuration) {
+            super(frameWidth, frameHeight, frameDuration);
+            this.resources = resources;
+            this.resId = resId;
+            this.frameCount = Math.max(1, frameCount);
+        }
+
+        @Override
+        boolean decode(long tick, Bitmap into) {
+            if (decoder == null) {
+                InputStream inputStream = resources.openRawResource(resId);
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+                } catch (IOException e) {
+                    return false;
+                } finally {
+                    RegionDecoders.closeQuietly(inputStream);
+                }
+                columns = Math.max(1, decoder.getWidth() / width);
+            }
+            int frame = (int) (tick % frameCount);
+            int left = (frame % columns) * width;
+            int top = (frame / columns) * height;
+            region.set(left, top, left + width, top + height);
+            if (canvas == null) {
+                canvas = new Canvas();
+            }
+            return RegionDecoders.decodeInto(decoder, region, options, into, canvas);
+        }
+
+        @Override
+        void release() {
+            if (decoder != null) {
+                decoder.recycle();
+                decoder = null;
+            }
+            canvas = null;
+        }
+    }
+}
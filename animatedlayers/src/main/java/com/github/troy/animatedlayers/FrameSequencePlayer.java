@@ -0,0 +1,247 @@
+package com.github.troy.animatedlayers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Shader;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+/**
+ * Plays a {@link FrameSequence} through a small ring of reusable bitmaps, so the memory stays the same
+ * whatever the number of frames is. Frames are decoded one at a time on {@link LayerWorker},
+ * always aiming at the next frame due on the clock, which means frames are skipped rather than delayed
+ * when decoding falls behind.
+ */
+
+class FrameSequencePlayer {
+    static final int DEFAULT_BUFFER_COUNT = 3;
+    static final int MIN_BUFFER_COUNT = 2;
+
+    private static final int SLOT_FREE = 0;
+    private static final int SLOT_DECODING = 1;
+    private static final int SLOT_READY = 2;
+    private static final int SLOT_DISPLAY = 3;
+
+    interface Callback {
+        /**
+         * Called on any thread when a decoded frame should be displayed after the given delay.
+         * */
+        void onFrameReady(long delayMillis);
+    }
+
+    private final FrameSequence sequence;
+    private final Bitmap[] buffers;
+    private final BitmapShader[] shaders;
+    private final int[] slotStates;
+    private final long[] slotTicks;
+    private Callback callback;
+    private long startTime = -1;
+    private long pauseTime = -1;
+    private int displaySlot = -1;
+    private boolean decoding = false;
+    private boolean failed = false;
+    private boolean released = false;
+
+    FrameSequencePlayer(FrameSequence sequence, int bufferCount, Shader.TileMode tileX, Shader.TileMode tileY, Callback callback) {
+        this.sequence = sequence;
+        this.callback = callback;
+        bufferCount = Math.max(MIN_BUFFER_COUNT, bufferCount);
+        buffers = new Bitmap[bufferCount];
+        shaders = new BitmapShader[bufferCount];
+        slotStates = new int[bufferCount];
+        slotTicks = new long[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = Bitmap.createBitmap(Math.max(1, sequence.width), Math.max(1, sequence.height), Bitmap.Config.ARGB_8888);
+            shaders[i] = new BitmapShader(buffers[i], tileX, tileY);
+        }
+    }
+
+    /**
+     * @param callback Replaces the one given to the constructor, e.g. when a prepared scene is swapped into another host.
+     * */
+    synchronized void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Called on {@link LayerWorker} before the player is handed to the UI thread,
+     * so the first frame is drawable as soon as the layer is shown instead of popping in later.
+     * */
+    void decodeFirstFrame() {
+        synchronized (this) {
+            if (released || decoding || startTime >= 0 || displaySlot >= 0) {
+                return;
+            }
+            decoding = true;
+            slotStates[0] = SLOT_DECODING;
+            slotTicks[0] = 0;
+        }
+        boolean success = sequence.decode(0, buffers[0]);
+        synchronized (this) {
+            decoding = false;
+            if (success) {
+                slotStates[0] = SLOT_DISPLAY;
+                displaySlot = 0;
+            } else {
+                slotStates[0] = SLOT_FREE;
+                failed = true;
+            }
+        }
+    }
+
+    synchronized void start() {
+        if (released || startTime >= 0) {
+            return;
+        }
+        startTime = SystemClock.uptimeMillis();
+        scheduleDecodeLocked();
+    }
+
+    synchronized void pause() {
+        if (startTime < 0 || pauseTime >= 0) {
+            return;
+        }
+        pauseTime = SystemClock.uptimeMillis();
+    }
+
+    synchronized void resume() {
+        if (startTime < 0) {
+            start();
+            return;
+        }
+        if (pauseTime < 0) {
+            return;
+        }
+        startTime += SystemClock.uptimeMillis() - pauseTime;
+        pauseTime = -1;
+        scheduleDecodeLocked();
+        //Redraws stop while paused, so one is needed to pick the clock up again
+        callback.onFrameReady(0);
+    }
+
+    synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        LayerWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                sequence.release();
+            }
+        });
+    }
+
+    /**
+     * Called on the UI thread while drawing, swaps in the latest decoded frame which is due.
+     * @return The shader of the displaying frame, or null if the first frame is not decoded yet.
+     * */
+    @Nullable
+    synchronized BitmapShader currentFrame() {
+        if (startTime < 0) {
+            return displaySlot >= 0 ? shaders[displaySlot] : null;
+        }
+        long tick = currentTickLocked();
+        int best = -1;
+        long pendingTick = Long.MAX_VALUE;
+        for (int i = 0; i < slotStates.length; i++) {
+            if (slotStates[i] != SLOT_READY) {
+                continue;
+            }
+            if (slotTicks[i] <= tick) {
+                if (best < 0 || slotTicks[i] > slotTicks[best]) {
+                    best = i;
+                }
+            } else {
+                pendingTick = Math.min(pendingTick, slotTicks[i]);
+            }
+        }
+        if (best >= 0) {
+            for (int i = 0; i < slotStates.length; i++) {
+                //Late frames which were overtaken are dropped together with the previous one
+                if (slotStates[i] == SLOT_DISPLAY || (slotStates[i] == SLOT_READY && slotTicks[i] < slotTicks[best])) {
+                    slotStates[i] = SLOT_FREE;
+                }
+            }
+            slotStates[best] = SLOT_DISPLAY;
+            displaySlot = best;
+            scheduleDecodeLocked();
+        }
+        //The clock stands still while paused, so asking for a redraw would repeat forever
+        if (pendingTick != Long.MAX_VALUE && pauseTime < 0) {
+            callback.onFrameReady(startTime + pendingTick * sequence.frameDuration - now());
+        }
+        return displaySlot >= 0 ? shaders[displaySlot] : null;
+    }
+
+    private long now() {
+        return pauseTime >= 0 ? pauseTime : SystemClock.uptimeMillis();
+    }
+
+    private long currentTickLocked() {
+        return Math.max(0, (now() - startTime) / sequence.frameDuration);
+    }
+
+    private void scheduleDecodeLocked() {
+        if (released || failed || decoding || startTime < 0 || pauseTime >= 0) {
+            return;
+        }
+        int slot = -1;
+        long latestTick = -1;
+        for (int i = 0; i < slotStates.length; i++) {
+            if (slotStates[i] == SLOT_FREE) {
+                if (slot < 0) {
+                    slot = i;
+                }
+            } else {
+                latestTick = Math.max(latestTick, slotTicks[i]);
+            }
+        }
+        if (slot < 0) {
+            return;
+        }
+        //Nothing shown yet means the current frame is wanted, otherwise aim one frame ahead of the clock
+        long tick = displaySlot < 0 && latestTick < 0 ? currentTickLocked() : Math.max(latestTick, currentTickLocked()) + 1;
+        slotStates[slot] = SLOT_DECODING;
+        slotTicks[slot] = tick;
+        decoding = true;
+        final int decodeSlot = slot;
+        final long decodeTick = tick;
+        LayerWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                decodeFrame(decodeSlot, decodeTick);
+            }
+        });
+    }
+
+    private void decodeFrame(int slot, long tick) {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+        }
+        boolean success = sequence.decode(tick, buffers[slot]);
+        long delay;
+        Callback target;
+        synchronized (this) {
+            decoding = false;
+            if (released) {
+                return;
+            }
+            if (!success) {
+                failed = true;
+                slotStates[slot] = SLOT_FREE;
+                return;
+            }
+            slotStates[slot] = SLOT_READY;
+            if (pauseTime >= 0) { //Shown by the redraw of resume()
+                return;
+            }
+            delay = startTime + tick * sequence.frameDuration - now();
+            scheduleDecodeLocked();
+            target = callback;
+        }
+        target.onFrameReady(delay);
+    }
+}
@@ -93,9 +93,81 @@ public class LayerConfig {
     }
 
     public TimeInterpolator getTimeInterpolator() {
+        if (builder.interpolatorResolution > 0) {
+            return BakedInterpolator.bake(builder.interpolator, builder.interpolatorResolution);
+        }
         return builder.interpolator;
     }
 
+    public int getInterpolatorResolution() {
+        return builder.interpolatorResolution;
+    }
+
+    public boolean isScrollDriven() {
+        return builder.scrollDriven;
+    }
+
+    @AnimatedLayerView.LayerSource
+    public int getLayerSource() {
+        return builder.layerSource;
+    }
+
+    public int getFrameWidth() {
+        return builder.frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return builder.frameHeight;
+    }
+
+    public int getFrameCount() {
+        return builder.frameCount;
+    }
+
+    public int getFrameDuration() {
+        return builder.frameDuration;
+    }
+
+    public int getFrameBufferCount() {
+        return builder.frameBufferCount;
+    }
+
+    public int getTileSize() {
+        return builder.tileSize;
+    }
+
+    public int getParticleCount() {
+        return builder.particleCount;
+    }
+
+    public float getParticleMinVelocityX() {
+        return builder.particleMinVelocityX;
+    }
+
+    public float getParticleMaxVelocityX() {
+        return builder.particleMaxVelocityX;
+    }
+
+    public float getParticleMinVelocityY() {
+        return builder.particleMinVelocityY;
+    }
+
+    public float getParticleMaxVelocityY() {
+        return builder.particleMaxVelocityY;
+    }
+
+    public float getParticleMaxRotationSpeed() {
+        return builder.particleMaxRotationSpeed;
+    }
+
+    public float getParticleMinScale() {
+        return builder.particleMinScale;
+    }
+
+    public float getParticleMaxScale() {
+        return builder.particleMaxScale;
+    }
+
     public static class Builder {
         @DrawableRes
         int resId = -1;
@@ -116,6 +188,24 @@ public class LayerConfig {
         int repeatMode = ValueAnimator.RESTART;
         int repeatCount = ValueAnimator.INFINITE;
         TimeInterpolator interpolator = null;
+        int interpolatorResolution = 0;
+        boolean scrollDriven = false;
+        @AnimatedLayerView.LayerSource
+        int layerSource = AnimatedLayerView.SOURCE_BITMAP;
+        int frameWidth;
+        int frameHeight;
+        int frameCount;
+        int frameDuration;
+        int frameBufferCount = FrameSequencePlayer.DEFAULT_BUFFER_COUNT;
+        int tileSize = TiledImage.DEFAULT_TILE_SIZE;
+        int particleCount = 100;
+        float particleMinVelocityX = 0;
+        float particleMaxVelocityX = 0;
+        float particleMinVelocityY = 0;
+        float particleMaxVelocityY = 0;
+        float particleMaxRotationSpeed = 0;
+        float particleMinScale = 1;
+        float particleMaxScale = 1;
 
         public Builder(@DrawableRes int resId, @AnimatedLayerView.AnimationType int animationType) {
             this.resId = resId;
@@ -164,6 +254,110 @@ public class LayerConfig {
             return this;
         }
 
+        /**
+         * Bake the interpolator into a shared lookup table, see {@link BakedInterpolator}.
+         * @param resolution Number of entries in the table, 0 means the interpolator is evaluated directly.
+         * */
+        public Builder bakeInterpolator(@IntRange(from = 0) int resolution) {
+            this.interpolatorResolution = Math.max(0, resolution);
+            return this;
+        }
+
+        /**
+         * Drive the phase of this layer by the scroll fraction of its view
+         * {@link AnimatedLayerView#setScrollFraction(float)} instead of a running animator.
+         * The whole animationInterval is covered when the fraction goes from 0 to 1,
+         * while duration, repeatMode, repeatCount and interpolator are ignored.
+         * */
+        public Builder scrollDriven(boolean scrollDriven) {
+            this.scrollDriven = scrollDriven;
+            return this;
+        }
+
+        /**
+         * Play the drawable resource as an animated GIF, whose frames are decoded in the background.
+         * NOTE: The resource is read raw, so the frames are drawn at their pixel size without density scaling.
+         * */
+        public Builder gifFrames() {
+            this.layerSource = AnimatedLayerView.SOURCE_GIF;
+            return this;
+        }
+
+        /**
+         * Play the drawable resource as a sprite sheet, frames are laid out from left to right and then top to bottom.
+         * NOTE: The resource is read raw, so the frames are drawn at their pixel size without density scaling.
+         * */
+        public Builder spriteSheetFrames(@IntRange(from = 1) int frameWidth, @IntRange(from = 1) int frameHeight,
+                                         @IntRange(from = 1) int frameCount, @IntRange(from = 1) int frameDuration) {
+            this.layerSource = AnimatedLayerView.SOURCE_SPRITE_SHEET;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.frameCount = frameCount;
+            this.frameDuration = frameDuration;
+            return this;
+        }
+
+        /**
+         * @param frameBufferCount Number of reusable bitmaps for GIF and sprite sheet layers, 3 by default and at least 2.
+         * */
+        public Builder frameBufferCount(@IntRange(from = FrameSequencePlayer.MIN_BUFFER_COUNT) int frameBufferCount) {
+            this.frameBufferCount = Math.max(FrameSequencePlayer.MIN_BUFFER_COUNT, frameBufferCount);
+            return this;
+        }
+
+        /**
+         * Same as {@link #tiled(int)} with tiles of 256 pixels.
+         * */
+        public Builder tiled() {
+            return tiled(TiledImage.DEFAULT_TILE_SIZE);
+        }
+
+        /**
+         * Decode the drawable resource by tiles with BitmapRegionDecoder instead of holding the whole bitmap,
+         * which is meant for panoramic images panned by the TRANSLATE types.
+         * Only the tiles in the viewport plus one ahead in the pan direction are kept in memory.
+         * NOTE: The resource is read raw, so the image is drawn at its pixel size without density scaling.
+         * */
+        public Builder tiled(@IntRange(from = 1) int tileSize) {
+            this.layerSource = AnimatedLayerView.SOURCE_TILED;
+            this.tileSize = Math.max(1, tileSize);
+            return this;
+        }
+
+        /**
+         * @param count Number of copies drawn by a layer of type {@link AnimatedLayerView#PARTICLES},
+         *              100 by default and at most 2000.
+         * */
+        public Builder particleCount(@IntRange(from = 0, to = ParticleSystem.MAX_PARTICLE_COUNT) int count) {
+            this.particleCount = Math.max(0, Math.min(ParticleSystem.MAX_PARTICLE_COUNT, count));
+            return this;
+        }
+
+        /**
+         * Each particle picks its velocity in pixels per second randomly from the given ranges.
+         * */
+        public Builder particleVelocity(float minX, float maxX, float minY, float maxY) {
+            this.particleMinVelocityX = minX;
+            this.particleMaxVelocityX = maxX;
+            this.particleMinVelocityY = minY;
+            this.particleMaxVelocityY = maxY;
+            return this;
+        }
+
+        /**
+         * Each particle spins at a random speed between -maxDegreesPerSecond and maxDegreesPerSecond.
+         * */
+        public Builder particleRotation(float maxDegreesPerSecond) {
+            this.particleMaxRotationSpeed = maxDegreesPerSecond;
+            return this;
+        }
+
+        public Builder particleScale(@FloatRange(from = 0) float min, @FloatRange(from = 0) float max) {
+            this.particleMinScale = min;
+            this.particleMaxScale = max;
+            return this;
+        }
+
         public Builder margin(int start, int top, int end, int bottom) {
             this.marginStart = start;
             this.marginTop = top;
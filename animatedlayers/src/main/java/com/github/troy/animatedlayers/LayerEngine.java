@@ -0,0 +1,940 @@
+package com.github.troy.animatedlayers;
+
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+import android.view.animation.AnimationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.troy.animatedlayers.AnimatedLayerView.ALIGN_BOTTOM;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ALIGN_END;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ALIGN_START;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ALIGN_TOP;
+import static com.github.troy.animatedlayers.AnimatedLayerView.CENTER;
+import static com.github.troy.animatedlayers.AnimatedLayerView.CENTER_HORIZONTAL;
+import static com.github.troy.animatedlayers.AnimatedLayerView.CENTER_INSIDE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.CENTER_VERTICAL;
+import static com.github.troy.animatedlayers.AnimatedLayerView.FILL_PARENT;
+import static com.github.troy.animatedlayers.AnimatedLayerView.FITXY;
+import static com.github.troy.animatedlayers.AnimatedLayerView.NO_ANIMATION;
+import static com.github.troy.animatedlayers.AnimatedLayerView.NO_SCALE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.PARTICLES;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ROTATE_ANTICLOCKWISE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ROTATE_CLOCKWISE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.SCALE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.SOURCE_GIF;
+import static com.github.troy.animatedlayers.AnimatedLayerView.SOURCE_SPRITE_SHEET;
+import static com.github.troy.animatedlayers.AnimatedLayerView.SOURCE_TILED;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_DOWN;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_END;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_START;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_UP;
+
+/**
+ * The layer engine behind {@link AnimatedLayerView} and {@link AnimatedLayerDrawable}:
+ * it owns the layers, lays them out for the host size, runs their animations and draws them.
+ * Everything except the background preparation runs on the UI thread.
+ */
+
+class LayerEngine {
+    interface Host {
+        /**
+         * Called on the UI thread whenever the layers need to be drawn again.
+         * */
+        void invalidateLayers();
+
+        /**
+         * Called on the UI thread when the layers need to be drawn again after the given delay.
+         * */
+        void invalidateLayersDelayed(long delayMillis);
+    }
+
+    private final Resources resources;
+    private final Host host;
+    private final Paint paint;
+    private int vWidth;
+    private int vHeight;
+    private boolean running = true;
+    private ArrayList<Layer> layerInfoList = new ArrayList<>();
+    private final LayerStore store = new LayerStore();
+    private final Matrix drawMatrix = new Matrix();
+    private float scrollFraction = 0f;
+    private final boolean ownTicker;
+    private ValueAnimator ticker;
+    private boolean ticking = false;
+    private PreparedScene pendingScene;
+    private long lastTickTime = -1;
+    private final FrameSequencePlayer.Callback frameCallback = new FrameSequencePlayer.Callback() {
+        @Override
+        public void onFrameReady(final long delayMillis) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                host.invalidateLayersDelayed(Math.max(0, delayMillis));
+                return;
+            }
+            LayerWorker.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    host.invalidateLayersDelayed(Math.max(0, delayMillis));
+                }
+            });
+        }
+    };
+    private final TiledImage.Callback tileCallback = new TiledImage.Callback() {
+        @Override
+        public void onTileReady() {
+            host.invalidateLayers();
+        }
+    };
+
+    /**
+     * @param ownTicker true to advance the animations by an animator of the engine,
+     *                  false if the host calls {@link #tick()} on its own for every frame while {@link #isTicking()}.
+     * */
+    LayerEngine(Resources resources, Host host, boolean ownTicker) {
+        this.resources = resources;
+        this.host = host;
+        this.ownTicker = ownTicker;
+        paint = new Paint();
+        paint.setAntiAlias(true);
+    }
+
+    Paint getPaint() {
+        return paint;
+    }
+
+    /**
+     * @return true if the size actually changed and the layers were laid out again.
+     * */
+    boolean setSize(int width, int height) {
+        if (width == vWidth && height == vHeight) {
+            return false;
+        }
+        vWidth = width;
+        vHeight = height;
+        reconfiguration(true);
+        return true;
+    }
+
+    /**
+     * @param layerConfig Config for the adding layer
+     * @return The index of the added layer in the layer list,
+     *         which can be applied when this layer need to be removed {@link #removeLayer(int)}}.
+     * NOTE: This method will NOT check the duplication of the layerConfigs.
+     * */
+    int addLayer(LayerConfig layerConfig) {
+        if (layerConfig == null) {
+            return -1;
+        }
+        layerInfoList.add(Layer.generate(layerConfig, store));
+        reconfiguration(false);
+        return layerInfoList.size() - 1;
+    }
+
+    /**
+     * @param layerConfigs Config list for the adding layers
+     * @return The new index of the first item from the input list after composed to the existing list,
+     *         which can be applied when a layer need to be removed {@link #removeLayer(int)}}.
+     * NOTE: This method will NOT check the duplication of the layerConfigs.
+     * */
+    int addLayerList(ArrayList<LayerConfig> layerConfigs) {
+        if (layerConfigs == null || layerConfigs.isEmpty()) {
+            return -1;
+        }
+        final int resultIndex = layerInfoList.size();
+        for (LayerConfig config : layerConfigs) {
+            if (config == null) {
+                continue;
+            }
+            layerInfoList.add(Layer.generate(config, store));
+        }
+        reconfiguration(false);
+        return resultIndex;
+    }
+
+    /**
+     * @param layerConfigs Config list for the adding layers
+     * NOTE: This method is different from {@link #addLayerList(ArrayList)} ,the input layers will
+     *                     totally replace the current layers if there was any.
+     * */
+    void replaceLayerList(ArrayList<LayerConfig> layerConfigs) {
+        if (layerConfigs == null || layerConfigs.isEmpty()) {
+            return;
+        }
+        if (layerInfoList != null && !layerInfoList.isEmpty()) {
+            for (Layer layer : layerInfoList) {
+                if (layer == null) {
+                    continue;
+                }
+                layer.destroy();
+            }
+            layerInfoList.clear();
+        }
+        if (layerInfoList == null) {
+            layerInfoList = new ArrayList<>();
+        }
+        for (LayerConfig config : layerConfigs) {
+            if (config == null) {
+                continue;
+            }
+            layerInfoList.add(Layer.generate(config, store));
+        }
+        reconfiguration(true);
+    }
+
+    /**
+     * @param layerIndex The index of the removing layer in the layer list,
+     *                   which should be returned by {@link #addLayer(LayerConfig)}}
+     * */
+    void removeLayer(int layerIndex) {
+        if (layerInfoList == null || layerIndex < 0 || layerIndex >= layerInfoList.size()) {
+            return;
+        }
+        Layer layer = layerInfoList.remove(layerIndex);
+        layer.destroy();
+        updateTicker();
+        host.invalidateLayers();
+    }
+
+    /**
+     * @param layerConfigs Config list for the layers of the scene.
+     * @param width The width the scene is laid out for, normally the current or the coming width of the host.
+     * @param height The height the scene is laid out for.
+     * @return A scene which is decoded and laid out on a background thread,
+     *         and can be installed by {@link #swapScene(PreparedScene)} once ready.
+     * NOTE: Nothing of the current layers is touched until the scene is swapped in.
+     * */
+    PreparedScene prepare(@NonNull List<LayerConfig> layerConfigs, final int width, final int height) {
+        final PreparedScene scene = new PreparedScene(width, height);
+        final ArrayList<LayerConfig> configs = new ArrayList<>(layerConfigs);
+        LayerWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<Layer> layers = new ArrayList<>();
+                //Rows are moved into the store of the engine when the scene is swapped in
+                final LayerStore sceneStore = new LayerStore();
+                try {
+                    for (LayerConfig config : configs) {
+                        if (config == null) {
+                            continue;
+                        }
+                        Layer info = Layer.generate(config, sceneStore);
+                        layers.add(info);
+                        if (width > 0 && height > 0) {
+                            prepareLayer(info, resources, width, height);
+                        }
+                    }
+                    if (width > 0 && height > 0) {
+                        //Decoded up front as well, so no layer is blank on the frame the scene is swapped in
+                        sceneStore.update(0, 0f);
+                        Matrix matrix = new Matrix();
+                        for (Layer info : layers) {
+                            if (info.tiledImage != null) {
+                                info.tiledImage.decodeVisible(sceneStore.getMatrix(info.slot, matrix), info.targetRect);
+                            }
+                            if (info.frameSequencePlayer != null) {
+                                info.frameSequencePlayer.decodeFirstFrame();
+                            }
+                        }
+                    }
+                } catch (final RuntimeException e) {
+                    //Nothing of the scene will ever be shown, so the sources decoded so far are released here
+                    for (Layer info : layers) {
+                        info.destroy();
+                    }
+                    //Reported through the scene, a throw on the UI thread could not be caught by anyone
+                    LayerWorker.postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            scene.onFailed(e);
+                        }
+                    });
+                    return;
+                }
+                LayerWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        scene.onPrepared(layers);
+                    }
+                });
+            }
+        });
+        return scene;
+    }
+
+    /**
+     * @param scene A scene returned by {@link #prepare(List, int, int)}, which totally replaces the current layers
+     *              in one frame. If the scene is not prepared yet, it will be swapped in as soon as it is.
+     * NOTE: Layers are laid out again on the UI thread only if the scene size differs from the host size,
+     *       while the sources are never decoded again.
+     * */
+    void swapScene(@NonNull PreparedScene scene) {
+        if (scene.isFailed()) {
+            return;
+        }
+        if (pendingScene != null && pendingScene != scene) { //Only the latest scene is swapped in
+            pendingScene.pendingEngine = null;
+        }
+        if (!scene.isPrepared()) {
+            scene.pendingEngine = this;
+            pendingScene = scene;
+            return;
+        }
+        scene.pendingEngine = null;
+        pendingScene = null;
+        ArrayList<Layer> layers = scene.consumeLayers();
+        if (layers == null) { //Already swapped into a host or released
+            return;
+        }
+        for (Layer layer : layerInfoList) {
+            if (layer == null) {
+                continue;
+            }
+            layer.destroy();
+        }
+        layerInfoList.clear();
+        boolean sameSize = scene.getWidth() == vWidth && scene.getHeight() == vHeight && vWidth > 0 && vHeight > 0;
+        for (Layer info : layers) {
+            info.slot = store.adopt(info.store, info.slot);
+            info.store = store;
+            //The scene may have been prepared by another host, redraws must reach this one
+            if (info.tiledImage != null) {
+                info.tiledImage.setCallback(tileCallback);
+            }
+            if (info.frameSequencePlayer != null) {
+                info.frameSequencePlayer.setCallback(frameCallback);
+            }
+            if (sameSize) {
+                startLayer(info);
+            }
+            layerInfoList.add(info);
+        }
+        if (sameSize) {
+            store.update(0, scrollFraction);
+            updateTicker();
+        } else {
+            reconfiguration(false);
+        }
+        host.invalidateLayers();
+    }
+
+    /**
+     * Forget a scene waiting to be swapped in, e.g. because its preparation failed.
+     * */
+    void cancelSwap(@NonNull PreparedScene scene) {
+        scene.pendingEngine = null;
+        if (pendingScene == scene) {
+            pendingScene = null;
+        }
+    }
+
+    /**
+     * @param fraction The phase applied to all the scroll driven layers {@link LayerConfig.Builder#scrollDriven(boolean)},
+     *                 0 is the initial position and 1 means the whole animationInterval has been passed.
+     * NOTE: The host is only invalidated when the fraction actually changes, so there is no cost while idle.
+     * */
+    void setScrollFraction(@FloatRange(from = 0, to = 1) float fraction) {
+        fraction = Math.max(0f, Math.min(1f, fraction));
+        if (fraction == scrollFraction) {
+            return;
+        }
+        scrollFraction = fraction;
+        for (Layer info : layerInfoList) {
+            if (info != null && info.configured && info.scrollDriven) {
+                store.update(0, scrollFraction);
+                host.invalidateLayers();
+                return;
+            }
+        }
+    }
+
+    float getScrollFraction() {
+        return scrollFraction;
+    }
+
+    void draw(Canvas canvas) {
+        if (layerInfoList != null && !layerInfoList.isEmpty()) {
+            canvas.save();
+            for (Layer info : layerInfoList) {
+                if (info == null || !info.configured) {
+                    continue;
+                }
+                if (info.particleSystem != null) {
+                    info.particleSystem.draw(canvas, paint);
+                    continue;
+                }
+                if (info.tiledImage != null) {
+                    info.tiledImage.draw(canvas, store.getMatrix(info.slot, drawMatrix), info.targetRect, paint);
+                    continue;
+                }
+                if (info.frameSequencePlayer != null) {
+                    info.layerShader = info.frameSequencePlayer.currentFrame();
+                    if (info.layerShader == null) { //First frame is still decoding
+                        continue;
+                    }
+                }
+                info.layerShader.setLocalMatrix(store.getMatrix(info.slot, drawMatrix));
+                paint.setShader(info.layerShader);
+                if (info.animationType == AnimatedLayerView.ROTATE_CLOCKWISE
+                        || info.animationType == AnimatedLayerView.ROTATE_ANTICLOCKWISE) {
+                    canvas.drawCircle(info.targetRect.centerX(), info.targetRect.centerY(),
+                            Math.min(info.targetRect.width(), info.targetRect.height())/2, paint);
+                } else {
+                    canvas.drawRect(info.targetRect, paint);
+                }
+            }
+            canvas.restore();
+        }
+    }
+
+    /**
+     * @param running false to pause all the animations, e.g. when the host becomes invisible.
+     * */
+    void setRunning(boolean running) {
+        this.running = running;
+        if (layerInfoList != null && !layerInfoList.isEmpty()) {
+            for (Layer info : layerInfoList) {
+                if (info == null || !info.configured) {
+                    continue;
+                }
+                if (running) {
+                    info.tryStart();
+                } else {
+                    info.tryEnd();
+                }
+            }
+        }
+        updateTicker();
+    }
+
+    void destroy() {
+        if (pendingScene != null) { //A scene prepared after the host is gone must not be installed
+            cancelSwap(pendingScene);
+        }
+        if (layerInfoList != null && !layerInfoList.isEmpty()) {
+            for (Layer info : layerInfoList) {
+                if (info == null) {
+                    continue;
+                }
+                info.destroy();
+            }
+            layerInfoList.clear();
+        }
+        updateTicker();
+    }
+
+    private void layoutLayer(final Layer info, int width, int height,
+                             float extraSpaceXPercentageForScale, float extraSpaceYPercentageForScale) {
+        //Config Matrix and target Rect to draw
+        final LayerStore store = info.store;
+        final int slot = info.slot;
+        info.targetRect = new Rect(0, 0, width, height);
+        if (info.layerGravity == CENTER) {
+            int widthOffset = (width - info.drawableWidth)/2;
+            int heightOffset = (height - info.drawableHeight)/2;
+            if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
+                int rectX = width - info.drawableWidth > 0 ? (width - info.drawableWidth)/2 : 0;
+                int rectY = height - info.drawableHeight > 0 ? (height - info.drawableHeight)/2 : 0;
+                info.targetRect = new Rect(rectX, rectY, width - rectX, height - rectY);
+            }
+            float scaleX = width / (info.drawableWidth*1f);
+            float scaleY = height / (info.drawableHeight*1f);
+            //Only scale down, no scale up for gravity == CENTER
+            if (info.layerScaleType == NO_SCALE) {
+                store.translateX[slot] = widthOffset;
+                store.translateY[slot] = heightOffset;
+            } else if (info.layerScaleType == FITXY) {
+                store.scaleX[slot] = Math.min(1, scaleX);
+                store.scaleY[slot] = Math.min(1, scaleY);
+                store.translateX[slot] = widthOffset;
+                store.translateY[slot] = heightOffset;
+            } else {
+                float actualScaleX = Math.min(1, scaleX);
+                float actualScaleY = Math.min(1, scaleY);
+                float actualScale = info.layerScaleType == CENTER_INSIDE ?
+                        Math.min(actualScaleX, actualScaleY) : Math.max(actualScaleX, actualScaleY);
+                store.scaleX[slot] = actualScale;
+                store.scaleY[slot] = actualScale;
+                store.translateX[slot] = widthOffset;
+                store.translateY[slot] = heightOffset;
+            }
+        } else if (info.layerGravity == FILL_PARENT){
+            if(info.layerScaleType != NO_SCALE) {
+                float scaleX = width / (info.drawableWidth*1f);
+                float scaleY = height / (info.drawableHeight*1f);
+                if (info.layerScaleType == FITXY) {
+                    store.scaleX[slot] = scaleX;
+                    store.scaleY[slot] = scaleY;
+                } else {
+                    float actualScale = info.layerScaleType == CENTER_INSIDE ?
+                            Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
+                    store.scaleX[slot] = actualScale;
+                    store.scaleY[slot] = actualScale;
+                }
+            }
+        } else {
+            if ((info.layerGravity & CENTER_HORIZONTAL) == CENTER_HORIZONTAL) {
+                int widthOffset = width - info.drawableWidth > 0 ? (width - info.drawableWidth)/2 : 0;
+                info.targetRect.top = info.marginTop;
+                store.translateX[slot] += widthOffset;
+            } else if ((info.layerGravity & CENTER_VERTICAL) == CENTER_VERTICAL) {
+                int heightOffset = height - info.drawableHeight > 0 ? (height - info.drawableHeight)/2 : 0;
+                info.targetRect.left = info.marginStart;
+                store.translateY[slot] += heightOffset;
+            }
+            if ((info.layerGravity & ALIGN_TOP) == ALIGN_TOP) {
+                if (info.animationType != TRANSLATE_UP && info.animationType != TRANSLATE_DOWN) {
+                    info.targetRect.top = info.marginTop;
+                    info.targetRect.bottom = (int) Math.min(info.drawableHeight*extraSpaceYPercentageForScale + info.marginTop, height);
+                }
+                store.translateY[slot] += info.marginTop;
+            } else if ((info.layerGravity & ALIGN_BOTTOM) == ALIGN_BOTTOM) {
+                int rectOffset = height - info.drawableHeight*extraSpaceYPercentageForScale > 0 ?
+                        (int) (height - info.drawableHeight*extraSpaceYPercentageForScale) : 0;
+                if (info.animationType != TRANSLATE_UP && info.animationType != TRANSLATE_DOWN) {
+                    info.targetRect.top = rectOffset - info.marginBottom;
+                    info.targetRect.bottom = height - info.marginBottom;
+                }
+                int transOffset = height - info.drawableHeight > 0 ? height - info.drawableHeight : 0;
+                store.translateY[slot] += transOffset - info.marginBottom;
+            }
+            if ((info.layerGravity & ALIGN_START) == ALIGN_START) {
+                if (info.animationType != TRANSLATE_START && info.animationType != TRANSLATE_END) {
+                    info.targetRect.left = info.marginStart;
+                    info.targetRect.right = (int) Math.min(info.drawableWidth*extraSpaceXPercentageForScale + info.marginStart, width);
+                }
+                store.translateX[slot] += info.marginStart;
+            } else if ((info.layerGravity & ALIGN_END) == ALIGN_END) {
+                int rectOffset = width - info.drawableWidth*extraSpaceXPercentageForScale > 0 ?
+                        (int) (width - info.drawableWidth*extraSpaceXPercentageForScale) : 0;
+                if (info.animationType != TRANSLATE_START && info.animationType != TRANSLATE_END) {
+                    info.targetRect.left = rectOffset - info.marginEnd;
+                    info.targetRect.right = width - info.marginEnd;
+                }
+                int transOffset = width - info.drawableWidth > 0 ? width - info.drawableWidth : 0;
+                store.translateX[slot] += transOffset - info.marginEnd;
+            }
+        }
+        store.setTarget(slot, info.targetRect, info.scalePivotX, info.scalePivotY);
+    }
+
+    /**
+     * Resolve the automatic interval and hand the animation over to the store,
+     * where it is advanced by the ticker or by the scroll fraction.
+     * */
+    private void configLayerAnimation(final Layer info) {
+        if (info.animationInterval == LayerConfig.ANIMATION_INTERVAL_AUTO && info.animationType != NO_ANIMATION) {
+            if (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END) {
+                int interval = Math.abs(info.drawableWidth - vWidth);
+                if(interval != 0) {
+                    info.animationInterval = interval;
+                }
+            } else if (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN) {
+                int interval = Math.abs(info.drawableHeight - vHeight);
+                if(interval != 0) {
+                    info.animationInterval = interval;
+                }
+            } else if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
+                info.animationInterval = 360;
+            } else if (info.animationType == SCALE) {
+                info.animationInterval = 1;
+            }
+        }
+
+        int driver = LayerStore.DRIVER_NONE;
+        if (info.animationType != NO_ANIMATION && info.animationType != PARTICLES
+                && info.animationInterval != LayerConfig.ANIMATION_INTERVAL_AUTO) {
+            driver = info.scrollDriven ? LayerStore.DRIVER_SCROLL : LayerStore.DRIVER_TIME;
+        }
+        store.setAnimation(info.slot, info.animationType, driver,
+                driver == LayerStore.DRIVER_NONE ? 0f : info.animationInterval, info.fromValue,
+                info.duration, info.repeatMode, info.repeatCount, info.interpolator);
+    }
+
+    /**
+     * @return true while something is moving, a host driving its own frames should keep calling {@link #tick()}.
+     * */
+    boolean isTicking() {
+        return ticking;
+    }
+
+    /**
+     * Advance all the time driven layers and the particles by the time passed since the last tick.
+     * @return false if nothing is moving any more, no more ticks are needed until {@link #isTicking()} is true again.
+     * */
+    boolean tick() {
+        if (!ticking) {
+            return false;
+        }
+        long now = AnimationUtils.currentAnimationTimeMillis();
+        long delta = lastTickTime >= 0 ? now - lastTickTime : 0;
+        lastTickTime = now;
+        boolean moving = store.update(delta, scrollFraction);
+        boolean particles = false;
+        for (Layer info : layerInfoList) {
+            if (info != null && info.configured && info.particleSystem != null) {
+                info.particleSystem.update(delta / 1000f);
+                particles = true;
+            }
+        }
+        host.invalidateLayers();
+        if (!moving && !particles) { //Every finite animation has ended
+            ticking = false;
+        }
+        return ticking;
+    }
+
+    /**
+     * Start or stop the single ticker which advances all the time driven layers and the particles,
+     * it only runs while something is moving.
+     * */
+    private void updateTicker() {
+        boolean needed = running && (store.isMoving() || hasParticles());
+        if (needed == ticking) {
+            return;
+        }
+        ticking = needed;
+        if (needed) {
+            lastTickTime = -1;
+        }
+        if (!ownTicker) {
+            if (needed) { //The first frame of the host starts its tick loop
+                host.invalidateLayers();
+            }
+            return;
+        }
+        if (needed) {
+            if (ticker == null) {
+                //The animator only ticks the frames, the phases come from the time between the ticks
+                ticker = ValueAnimator.ofFloat(0f, 1f);
+                ticker.setDuration(1000);
+                ticker.setRepeatCount(ValueAnimator.INFINITE);
+                ticker.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                    @Override
+                    public void onAnimationUpdate(ValueAnimator animation) {
+                        if (!tick()) {
+                            animation.cancel();
+                        }
+                    }
+                });
+            }
+            ticker.start();
+        } else if (ticker != null) {
+            ticker.cancel();
+        }
+    }
+
+    private boolean hasParticles() {
+        for (Layer info : layerInfoList) {
+            if (info != null && info.configured && info.particleSystem != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void configLayerInfo(@NonNull final Layer info) {
+        prepareLayer(info, resources, vWidth, vHeight);
+        startLayer(info);
+    }
+
+    /**
+     * Decode the source and lay the layer out for the given size. This part touches no view state,
+     * so it can run on {@link LayerWorker} as well, see {@link #prepare(List, int, int)}.
+     * */
+    private void prepareLayer(@NonNull final Layer info, Resources resources, int width, int height) {
+        if (info.rasterized && info.layerShader != null
+                && (rasterSize(info, width, height, true) != info.drawableWidth
+                || rasterSize(info, width, height, false) != info.drawableHeight)) {
+            //The target size changed, so the drawable has to be drawn again
+            info.layerShader = null;
+        }
+        //Config bitmap shader
+        if(info.layerShader == null && info.frameSequencePlayer == null && info.tiledImage == null) {
+            Bitmap bitmap = null;
+            FrameSequence sequence = null;
+            TiledImage tiledImage = null;
+            if (info.layerSource == SOURCE_TILED) {
+                tiledImage = new TiledImage(resources, info.resId, info.tileSize, tileCallback);
+            } else if (info.layerSource == SOURCE_GIF) {
+                sequence = FrameSequence.gif(resources, info.resId);
+            } else if (info.layerSource == SOURCE_SPRITE_SHEET) {
+                sequence = FrameSequence.spriteSheet(resources, info.resId,
+                        info.frameWidth, info.frameHeight, info.frameCount, info.frameDuration);
+            } else {
+                Drawable drawable = null;
+                if (DrawableRasterizer.isBitmapResource(resources, info.resId)) {
+                    drawable = resources.getDrawable(info.resId);
+                    if (drawable instanceof BitmapDrawable) {
+                        bitmap = ((BitmapDrawable) drawable).getBitmap();
+                    }
+                }
+                if (bitmap == null) {
+                    //Only inflated when its intrinsic size is unknown, a cached raster needs no drawable at all
+                    int[] intrinsicSize = DrawableRasterizer.cachedIntrinsicSize(resources, info.resId);
+                    if (intrinsicSize == null) {
+                        if (drawable == null) {
+                            drawable = resources.getDrawable(info.resId);
+                        }
+                        intrinsicSize = DrawableRasterizer.cacheIntrinsicSize(resources, info.resId, drawable);
+                    }
+                    info.rasterized = true;
+                    info.intrinsicWidth = intrinsicSize[0];
+                    info.intrinsicHeight = intrinsicSize[1];
+                    bitmap = DrawableRasterizer.rasterize(resources, info.resId, drawable,
+                            rasterSize(info, width, height, true), rasterSize(info, width, height, false));
+                }
+            }
+            if (tiledImage != null) {
+                info.drawableWidth = tiledImage.width;
+                info.drawableHeight = tiledImage.height;
+            } else {
+                info.drawableWidth = bitmap != null ? bitmap.getWidth() : sequence.width;
+                info.drawableHeight = bitmap != null ? bitmap.getHeight() : sequence.height;
+            }
+            Shader.TileMode x = (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END)
+                    ? ((info.drawableWidth < width) ? Shader.TileMode.CLAMP : Shader.TileMode.REPEAT) : Shader.TileMode.CLAMP;
+            Shader.TileMode y = (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN)
+                    ? ((info.drawableHeight < height) ? Shader.TileMode.CLAMP : Shader.TileMode.REPEAT) : Shader.TileMode.CLAMP;
+            if (tiledImage != null) {
+                //The content moves against the translate direction, so the next tile is on the opposite side
+                int prefetchX = info.animationType == TRANSLATE_START ? 1 : info.animationType == TRANSLATE_END ? -1 : 0;
+                int prefetchY = info.animationType == TRANSLATE_UP ? 1 : info.animationType == TRANSLATE_DOWN ? -1 : 0;
+                tiledImage.configure(x == Shader.TileMode.REPEAT, y == Shader.TileMode.REPEAT, prefetchX, prefetchY);
+                info.tiledImage = tiledImage;
+            } else if (bitmap != null) {
+                info.layerShader = new BitmapShader(bitmap, x, y);
+                if (info.animationType == PARTICLES) {
+                    info.particleSystem = new ParticleSystem(bitmap, info.particleCount, info.duration,
+                            info.particleMinVelocityX, info.particleMaxVelocityX,
+                            info.particleMinVelocityY, info.particleMaxVelocityY,
+                            info.particleMaxRotationSpeed, info.particleMinScale, info.particleMaxScale);
+                }
+            } else {
+                info.frameSequencePlayer = new FrameSequencePlayer(sequence, info.frameBufferCount, x, y, frameCallback);
+            }
+        }
+        //The store keeps the laid out transform only, the animation phase is applied on top of it
+        final LayerStore store = info.store;
+        store.resetTransform(info.slot);
+        //Set initial value
+        float extraSpaceXPercentageForScale = 1f;
+        float extraSpaceYPercentageForScale = 1f;
+        if (info.animationType == ROTATE_CLOCKWISE || info.animationType == ROTATE_ANTICLOCKWISE) {
+            store.rotateDegree[info.slot] += info.fromValue;
+        } else if (info.animationType == TRANSLATE_START || info.animationType == TRANSLATE_END) {
+            store.translateX[info.slot] += info.fromValue;
+        } else if (info.animationType == TRANSLATE_UP || info.animationType == TRANSLATE_DOWN) {
+            store.translateY[info.slot] += info.fromValue;
+        } else if (info.animationType == SCALE) {
+            float fromScale = info.fromValue;
+            float toScale = info.fromValue + info.animationInterval;
+            extraSpaceXPercentageForScale = Math.max(1, Math.max(fromScale, toScale));
+            extraSpaceYPercentageForScale = extraSpaceXPercentageForScale;
+        }
+
+        layoutLayer(info, width, height, extraSpaceXPercentageForScale, extraSpaceYPercentageForScale);
+
+        if (info.particleSystem != null) {
+            info.particleSystem.setBounds(info.targetRect);
+        }
+    }
+
+    /**
+     * @return The size in pixels a non-bitmap drawable is drawn at, which is exactly the size
+     *         {@link #layoutLayer(Layer, int, int, float, float)} would scale its intrinsic size to.
+     *         Drawables without intrinsic size fill the host.
+     * */
+    private static int rasterSize(Layer info, int width, int height, boolean horizontal) {
+        float intrinsicWidth = info.intrinsicWidth > 0 ? info.intrinsicWidth : width;
+        float intrinsicHeight = info.intrinsicHeight > 0 ? info.intrinsicHeight : height;
+        float scaleX = width / intrinsicWidth;
+        float scaleY = height / intrinsicHeight;
+        float scale = 1f;
+        if (info.layerScaleType != NO_SCALE && (info.layerGravity == FILL_PARENT || info.layerGravity == CENTER)) {
+            if (info.layerGravity == CENTER) {
+                //Only scale down, no scale up for gravity == CENTER
+                scaleX = Math.min(1, scaleX);
+                scaleY = Math.min(1, scaleY);
+            }
+            if (info.layerScaleType == FITXY) {
+                scale = horizontal ? scaleX : scaleY;
+            } else {
+                scale = info.layerScaleType == CENTER_INSIDE ? Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
+            }
+        }
+        return Math.max(1, Math.round((horizontal ? intrinsicWidth : intrinsicHeight) * scale));
+    }
+
+    /**
+     * Create and start the animations of a prepared layer, must be called on the UI thread.
+     * */
+    private void startLayer(@NonNull final Layer info) {
+        configLayerAnimation(info);
+
+        if (info.frameSequencePlayer != null && running) {
+            //Started together with the animator, so frames stay in step with the layer motion
+            info.frameSequencePlayer.start();
+        }
+
+        info.configured = true;
+    }
+
+    /**
+     * @param forceConfigAll true means the view params have changed and all layers need to be reconfigured.
+     *                       false means only some of the layers need reconfiguration or new layer was added.
+     * */
+    private void reconfiguration(boolean forceConfigAll) {
+        if (vWidth <= 0 || vHeight <= 0) { //Host is not laid out yet
+            return;
+        }
+        if (layerInfoList.isEmpty()) { //No layers added
+            return;
+        }
+        for (Layer info : layerInfoList) {
+            if (info ==  null || (info.configured && !forceConfigAll)) {
+                continue;
+            }
+            configLayerInfo(info);
+        }
+        store.update(0, scrollFraction);
+        updateTicker();
+    }
+
+    static class Layer {
+        @AnimatedLayerView.AnimationType int animationType;
+        @DrawableRes
+        int resId;
+        @AnimatedLayerView.LayerScaleType int layerScaleType;
+        int layerGravity;
+        int marginStart;
+        int marginTop;
+        int marginEnd;
+        int marginBottom;
+        BitmapShader layerShader;
+        int drawableWidth;
+        int drawableHeight;
+        Rect targetRect;
+        float animationInterval;
+        float fromValue;
+        int duration;
+        int repeatMode = ValueAnimator.RESTART;
+        int repeatCount = ValueAnimator.INFINITE;
+        TimeInterpolator interpolator = null;
+        boolean configured = false;
+        boolean scrollDriven = false;
+        @AnimatedLayerView.LayerSource int layerSource;
+        int frameWidth;
+        int frameHeight;
+        int frameCount;
+        int frameDuration;
+        int frameBufferCount;
+        FrameSequencePlayer frameSequencePlayer;
+        int tileSize;
+        TiledImage tiledImage;
+        boolean rasterized = false;
+        int intrinsicWidth;
+        int intrinsicHeight;
+        int particleCount;
+        float particleMinVelocityX;
+        float particleMaxVelocityX;
+        float particleMinVelocityY;
+        float particleMaxVelocityY;
+        float particleMaxRotationSpeed;
+        float particleMinScale;
+        float particleMaxScale;
+        ParticleSystem particleSystem;
+        float scalePivotX = -1f;
+        float scalePivotY = -1f;
+
+        //Transform and animation state live in the store, see LayerStore
+        LayerStore store;
+        int slot = -1;
+
+        public static Layer generate(LayerConfig config, LayerStore store) {
+            Layer info = new Layer();
+            info.store = store;
+            info.slot = store.obtain();
+            info.animationType = config.getAnimationType();
+            info.layerGravity = config.getLayerGravity();
+            info.layerScaleType = config.getLayerScaleType();
+            info.resId = config.getDrawableResId();
+            info.marginStart = config.getMarginStart();
+            info.marginTop = config.getMarginTop();
+            info.marginEnd = config.getMarginEnd();
+            info.marginBottom = config.getMarginBottom();
+            info.scalePivotX = config.getScalePivotX();
+            info.scalePivotY = config.getScalePivotY();
+            info.scrollDriven = config.isScrollDriven();
+            info.layerSource = config.getLayerSource();
+            info.frameWidth = config.getFrameWidth();
+            info.frameHeight = config.getFrameHeight();
+            info.frameCount = config.getFrameCount();
+            info.frameDuration = config.getFrameDuration();
+            info.frameBufferCount = config.getFrameBufferCount();
+            info.tileSize = config.getTileSize();
+            info.particleCount = config.getParticleCount();
+            info.particleMinVelocityX = config.getParticleMinVelocityX();
+            info.particleMaxVelocityX = config.getParticleMaxVelocityX();
+            info.particleMinVelocityY = config.getParticleMinVelocityY();
+            info.particleMaxVelocityY = config.getParticleMaxVelocityY();
+            info.particleMaxRotationSpeed = config.getParticleMaxRotationSpeed();
+            info.particleMinScale = config.getParticleMinScale();
+            info.particleMaxScale = config.getParticleMaxScale();
+            if (info.animationType != NO_ANIMATION) {
+                info.animationInterval = config.getAnimationInterval();
+                info.fromValue = config.getFromValue();
+                info.duration = config.getDuration();
+                info.repeatMode = config.getRepeatMode();
+                info.repeatCount = config.getRepeatCount();
+                info.interpolator = config.getTimeInterpolator();
+            }
+
+            return info;
+        }
+
+        void destroy() {
+            if (store != null) {
+                store.release(slot);
+                slot = -1;
+            }
+            if (frameSequencePlayer != null) {
+                frameSequencePlayer.release();
+                frameSequencePlayer = null;
+            }
+            if (tiledImage != null) {
+                tiledImage.release();
+                tiledImage = null;
+            }
+            particleSystem = null;
+            layerShader = null;
+            configured = false;
+        }
+
+        private void tryStart() {
+            if (frameSequencePlayer != null) {
+                frameSequencePlayer.resume();
+            }
+        }
+
+        private void tryEnd() {
+            if (frameSequencePlayer != null) {
+                frameSequencePlayer.pause();
+            }
+        }
+    }
+}
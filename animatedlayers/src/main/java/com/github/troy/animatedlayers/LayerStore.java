@@ -0,0 +1,359 @@
+package com.github.troy.animatedlayers;
+
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import static com.github.troy.animatedlayers.AnimatedLayerView.ROTATE_ANTICLOCKWISE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.ROTATE_CLOCKWISE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.SCALE;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_DOWN;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_END;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_START;
+import static com.github.troy.animatedlayers.AnimatedLayerView.TRANSLATE_UP;
+
+/**
+ * Transform and animation state of the layers, kept in parallel primitive arrays indexed by slot
+ * instead of one object per layer, so the per-frame work is a single sequential walk over a few arrays.
+ * A {@link LayerEngine.Layer} only holds its slot here besides the cold data such as shaders and sources.
+ * Not thread safe, a store is only touched by the thread owning its layers.
+ */
+
+class LayerStore {
+    static final int DRIVER_NONE = 0;
+    static final int DRIVER_TIME = 1;
+    static final int DRIVER_SCROLL = 2;
+
+    //Same as the default duration of ValueAnimator
+    private static final int DEFAULT_DURATION = 300;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MATRIX_STRIDE = 6;
+
+    private int capacity = 0;
+    private int size = 0;
+    private int[] freeSlots = new int[0];
+    private int freeCount = 0;
+    private boolean[] used;
+
+    //Laid out transform, the animation phase is applied on top of it
+    float[] translateX;
+    float[] translateY;
+    float[] rotateDegree;
+    float[] scaleX;
+    float[] scaleY;
+    private float[] pivotX;
+    private float[] pivotY;
+    private float[] centerX;
+    private float[] centerY;
+
+    private int[] animationType;
+    private int[] driver;
+    private float[] interval;
+    private float[] fromValue;
+    private int[] duration;
+    private int[] repeatMode;
+    private int[] repeatCount;
+    private long[] playTime;
+    private TimeInterpolator[] interpolator;
+
+    //Affine part of the final matrix of each slot, in the order of scaleX, skewX, transX, skewY, scaleY, transY
+    private float[] matrixValues;
+    private final float[] matrixScratch = new float[9];
+
+    LayerStore() {
+        grow(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return A new slot with an identity transform and no animation.
+     * */
+    int obtain() {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (size == capacity) {
+                grow(capacity * 2);
+            }
+            slot = size++;
+        }
+        used[slot] = true;
+        resetTransform(slot);
+        pivotX[slot] = 0f;
+        pivotY[slot] = 0f;
+        centerX[slot] = 0f;
+        centerY[slot] = 0f;
+        setAnimation(slot, AnimatedLayerView.NO_ANIMATION, DRIVER_NONE, 0f, 0f, 0, ValueAnimator.RESTART, 0, null);
+        playTime[slot] = 0;
+        matrixValues[slot * MATRIX_STRIDE] = 1f;
+        matrixValues[slot * MATRIX_STRIDE + 1] = 0f;
+        matrixValues[slot * MATRIX_STRIDE + 2] = 0f;
+        matrixValues[slot * MATRIX_STRIDE + 3] = 0f;
+        matrixValues[slot * MATRIX_STRIDE + 4] = 1f;
+        matrixValues[slot * MATRIX_STRIDE + 5] = 0f;
+        return slot;
+    }
+
+    void release(int slot) {
+        if (slot < 0 || slot >= size || !used[slot]) {
+            return;
+        }
+        used[slot] = false;
+        interpolator[slot] = null;
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[Math.max(INITIAL_CAPACITY, freeCount * 2)];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Move the row of a slot of another store into this one, e.g. when a prepared scene is swapped in.
+     * @return The slot of the row in this store, the slot in the source store is released.
+     * */
+    int adopt(LayerStore source, int sourceSlot) {
+        int slot = obtain();
+        translateX[slot] = source.translateX[sourceSlot];
+        translateY[slot] = source.translateY[sourceSlot];
+        rotateDegree[slot] = source.rotateDegree[sourceSlot];
+        scaleX[slot] = source.scaleX[sourceSlot];
+        scaleY[slot] = source.scaleY[sourceSlot];
+        pivotX[slot] = source.pivotX[sourceSlot];
+        pivotY[slot] = source.pivotY[sourceSlot];
+        centerX[slot] = source.centerX[sourceSlot];
+        centerY[slot] = source.centerY[sourceSlot];
+        setAnimation(slot, source.animationType[sourceSlot], source.driver[sourceSlot],
+                source.interval[sourceSlot], source.fromValue[sourceSlot], source.duration[sourceSlot],
+                source.repeatMode[sourceSlot], source.repeatCount[sourceSlot], source.interpolator[sourceSlot]);
+        playTime[slot] = source.playTime[sourceSlot];
+        System.arraycopy(source.matrixValues, sourceSlot * MATRIX_STRIDE, matrixValues, slot * MATRIX_STRIDE, MATRIX_STRIDE);
+        source.release(sourceSlot);
+        return slot;
+    }
+
+    void resetTransform(int slot) {
+        translateX[slot] = 0f;
+        translateY[slot] = 0f;
+        rotateDegree[slot] = 0f;
+        scaleX[slot] = 1f;
+        scaleY[slot] = 1f;
+    }
+
+    /**
+     * @param target The area the layer is drawn in, which the scale pivot and the rotation center refer to.
+     * @param scalePivotX Fraction of the target width, -1 for the center.
+     * @param scalePivotY Fraction of the target height, -1 for the center.
+     * */
+    void setTarget(int slot, Rect target, float scalePivotX, float scalePivotY) {
+        centerX[slot] = target.centerX();
+        centerY[slot] = target.centerY();
+        pivotX[slot] = scalePivotX == -1 ? target.centerX() : target.left + target.width()*scalePivotX;
+        pivotY[slot] = scalePivotY == -1 ? target.centerY() : target.top + target.height()*scalePivotY;
+    }
+
+    /**
+     * @param driver {@link #DRIVER_TIME} to advance the phase by {@link #update(long, float)},
+     *               {@link #DRIVER_SCROLL} to derive it from the scroll fraction, {@link #DRIVER_NONE} for a static layer.
+     * NOTE: The play time is kept, so a layer which is laid out again continues from where it was.
+     * */
+    void setAnimation(int slot, @AnimatedLayerView.AnimationType int type, int driver, float interval, float fromValue,
+                      int duration, int repeatMode, int repeatCount, TimeInterpolator interpolator) {
+        this.animationType[slot] = type;
+        this.driver[slot] = driver;
+        this.interval[slot] = interval;
+        this.fromValue[slot] = fromValue;
+        this.duration[slot] = duration > 0 ? duration : DEFAULT_DURATION;
+        this.repeatMode[slot] = repeatMode;
+        this.repeatCount[slot] = repeatCount;
+        this.interpolator[slot] = interpolator;
+    }
+
+    /**
+     * Advance the time driven slots, apply the scroll phase and compute the matrices of all the slots in one pass.
+     * @param deltaMillis Time passed since the last update, 0 to only recompute the matrices.
+     * @return true if any time driven slot has not finished yet.
+     * */
+    boolean update(long deltaMillis, float scrollFraction) {
+        boolean moving = false;
+        for (int i = 0; i < size; i++) {
+            if (!used[i]) {
+                continue;
+            }
+            float phase = 0f;
+            if (driver[i] == DRIVER_TIME) {
+                long time = playTime[i] += deltaMillis;
+                long iteration = time / duration[i];
+                float fraction = (time % duration[i]) / (float) duration[i];
+                if (repeatCount[i] != ValueAnimator.INFINITE && iteration > repeatCount[i]) {
+                    iteration = repeatCount[i];
+                    fraction = 1f;
+                    //Keep the time from overflowing while the finished slot stays around
+                    playTime[i] = (repeatCount[i] + 1L) * duration[i];
+                } else {
+                    moving = true;
+                }
+                boolean reverse = repeatMode[i] == ValueAnimator.REVERSE;
+                if (reverse && iteration % 2 == 1) {
+                    fraction = 1f - fraction;
+                }
+                if (interpolator[i] != null) {
+                    fraction = interpolator[i].getInterpolation(fraction);
+                }
+                if (!reverse && animationType[i] != SCALE) {
+                    //Every restart goes on from the end of the last run, so the content keeps moving the same way
+                    double passed = iteration * (double) interval[i];
+                    if (animationType[i] == ROTATE_CLOCKWISE || animationType[i] == ROTATE_ANTICLOCKWISE) {
+                        passed %= 360;
+                    }
+                    phase = (float) (passed + fraction * interval[i]);
+                } else {
+                    phase = fraction * interval[i];
+                }
+            } else if (driver[i] == DRIVER_SCROLL) {
+                phase = scrollFraction * interval[i];
+            }
+
+            float tx = translateX[i];
+            float ty = translateY[i];
+            float degree = rotateDegree[i];
+            float sx = scaleX[i];
+            float sy = scaleY[i];
+            switch (animationType[i]) {
+                case TRANSLATE_START:
+                    tx -= phase;
+                    break;
+                case TRANSLATE_END:
+                    tx += phase;
+                    break;
+                case TRANSLATE_UP:
+                    ty -= phase;
+                    break;
+                case TRANSLATE_DOWN:
+                    ty += phase;
+                    break;
+                case ROTATE_CLOCKWISE:
+                    degree += phase;
+                    break;
+                case ROTATE_ANTICLOCKWISE:
+                    degree -= phase;
+                    break;
+                case SCALE:
+                    if (driver[i] != DRIVER_NONE) {
+                        sx *= fromValue[i] + phase;
+                        sy *= fromValue[i] + phase;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            //Same as setTranslate(tx, ty), postScale(sx, sy, pivotX, pivotY), postRotate(degree, centerX, centerY)
+            double radians = Math.toRadians(degree);
+            float cos = (float) Math.cos(radians);
+            float sin = (float) Math.sin(radians);
+            float scaledX = sx * tx + pivotX[i] - sx * pivotX[i] - centerX[i];
+            float scaledY = sy * ty + pivotY[i] - sy * pivotY[i] - centerY[i];
+            int m = i * MATRIX_STRIDE;
+            matrixValues[m] = cos * sx;
+            matrixValues[m + 1] = -sin * sy;
+            matrixValues[m + 2] = cos * scaledX - sin * scaledY + centerX[i];
+            matrixValues[m + 3] = sin * sx;
+            matrixValues[m + 4] = cos * sy;
+            matrixValues[m + 5] = sin * scaledX + cos * scaledY + centerY[i];
+        }
+        return moving;
+    }
+
+    /**
+     * @return true if any slot is driven by time and has not finished yet.
+     * */
+    boolean isMoving() {
+        for (int i = 0; i < size; i++) {
+            if (used[i] && driver[i] == DRIVER_TIME && (repeatCount[i] == ValueAnimator.INFINITE
+                    || playTime[i] < (repeatCount[i] + 1L) * duration[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The given matrix set to the one computed by the last {@link #update(long, float)}.
+     * */
+    Matrix getMatrix(int slot, Matrix out) {
+        int m = slot * MATRIX_STRIDE;
+        matrixScratch[Matrix.MSCALE_X] = matrixValues[m];
+        matrixScratch[Matrix.MSKEW_X] = matrixValues[m + 1];
+        matrixScratch[Matrix.MTRANS_X] = matrixValues[m + 2];
+        matrixScratch[Matrix.MSKEW_Y] = matrixValues[m + 3];
+        matrixScratch[Matrix.MSCALE_Y] = matrixValues[m + 4];
+        matrixScratch[Matrix.MTRANS_Y] = matrixValues[m + 5];
+        matrixScratch[Matrix.MPERSP_0] = 0f;
+        matrixScratch[Matrix.MPERSP_1] = 0f;
+        matrixScratch[Matrix.MPERSP_2] = 1f;
+        out.setValues(matrixScratch);
+        return out;
+    }
+
+    private void grow(int newCapacity) {
+        used = copyOf(used, newCapacity);
+        translateX = copyOf(translateX, newCapacity);
+        translateY = copyOf(translateY, newCapacity);
+        rotateDegree = copyOf(rotateDegree, newCapacity);
+        scaleX = copyOf(scaleX, newCapacity);
+        scaleY = copyOf(scaleY, newCapacity);
+        pivotX = copyOf(pivotX, newCapacity);
+        pivotY = copyOf(pivotY, newCapacity);
+        centerX = copyOf(centerX, newCapacity);
+        centerY = copyOf(centerY, newCapacity);
+        animationType = copyOf(animationType, newCapacity);
+        driver = copyOf(driver, newCapacity);
+        interval = copyOf(interval, newCapacity);
+        fromValue = copyOf(fromValue, newCapacity);
+        duration = copyOf(duration, newCapacity);
+        repeatMode = copyOf(repeatMode, newCapacity);
+        repeatCount = copyOf(repeatCount, newCapacity);
+        playTime = copyOf(playTime, newCapacity);
+        TimeInterpolator[] interpolators = new TimeInterpolator[newCapacity];
+        if (interpolator != null) {
+            System.arraycopy(interpolator, 0, interpolators, 0, capacity);
+        }
+        interpolator = interpolators;
+        matrixValues = copyOf(matrixValues, newCapacity * MATRIX_STRIDE);
+        capacity = newCapacity;
+    }
+
+    private static float[] copyOf(float[] source, int length) {
+        float[] result = new float[length];
+        if (source != null) {
+            System.arraycopy(source, 0, result, 0, Math.min(source.length, length));
+        }
+        return result;
+    }
+
+    private static int[] copyOf(int[] source, int length) {
+        int[] result = new int[length];
+        if (source != null) {
+            System.arraycopy(source, 0, result, 0, Math.min(source.length, length));
+        }
+        return result;
+    }
+
+    private static long[] copyOf(long[] source, int length) {
+        long[] result = new long[length];
+        if (source != null) {
+            System.arraycopy(source, 0, result, 0, Math.min(source.length, length));
+        }
+        return result;
+    }
+
+    private static boolean[] copyOf(boolean[] source, int length) {
+        boolean[] result = new boolean[length];
+        if (source != null) {
+            System.arraycopy(source, 0, result, 0, Math.min(source.length, length));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.troy.animatedlayers;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The single background thread shared by all the layers for decoding work,
+ * so the UI thread never touches image data after a layer is configured.
+ */
+
+final class LayerWorker {
+    private static Handler workerHandler;
+    private static Handler mainHandler;
+
+    private LayerWorker() {
+    }
+
+    static synchronized Handler worker() {
+        if (workerHandler == null) {
+            HandlerThread thread = new HandlerThread("AnimatedLayerWorker", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            workerHandler = new Handler(thread.getLooper());
+        }
+        return workerHandler;
+    }
+
+    static synchronized Handler main() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+
+    static void post(Runnable task) {
+        worker().post(task);
+    }
+
+    static void postToMain(Runnable task) {
+        main().post(task);
+    }
+}
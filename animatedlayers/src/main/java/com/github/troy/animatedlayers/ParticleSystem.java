@@ -0,0 +1,230 @@
+package com.github.troy.animatedlayers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.os.Build;
+
+import java.util.Random;
+
+/**
+ * Many moving copies of one bitmap for the {@link AnimatedLayerView#PARTICLES} type.
+ * The state of every instance lives in primitive arrays which are updated by one loop per frame,
+ * and all the instances are drawn by a single {@link Canvas#drawVertices} call.
+ * NOTE: Hardware canvases below API 29 ignore drawVertices, there the vertices are drawn into a software bitmap
+ * the size of the layer area which is then drawn by one drawBitmap call, at the cost of uploading it every frame.
+ * Instances are respawned at a random position of the layer area when their lifetime is over.
+ */
+
+class ParticleSystem {
+    static final int MAX_PARTICLE_COUNT = 2000;
+    static final int DEFAULT_LIFETIME = 2000;
+    //Longer gaps, e.g. after the animation was paused, are not simulated
+    private static final float MAX_STEP_SECONDS = 0.1f;
+    //Part of the lifetime an instance fades in for, so respawning never pops in at full alpha
+    private static final float FADE_IN_FRACTION = 0.2f;
+    //Two triangles per instance
+    private static final int VERTICES_PER_PARTICLE = 6;
+
+    private final int count;
+    private final float lifetime;
+    private final float minVelocityX;
+    private final float maxVelocityX;
+    private final float minVelocityY;
+    private final float maxVelocityY;
+    private final float maxRotationSpeed;
+    private final float minScale;
+    private final float maxScale;
+    private final Bitmap bitmap;
+    private final float halfWidth;
+    private final float halfHeight;
+    private final Random random = new Random();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Rect bounds = new Rect();
+
+    private final float[] positionX;
+    private final float[] positionY;
+    private final float[] velocityX;
+    private final float[] velocityY;
+    private final float[] rotation;
+    private final float[] rotationSpeed;
+    private final float[] scale;
+    private final float[] age;
+
+    private final float[] vertices;
+    private final float[] textureCoordinates;
+    private final int[] colors;
+    private Bitmap fallbackBitmap;
+    private Canvas fallbackCanvas;
+    private Paint fallbackPaint;
+
+    ParticleSystem(Bitmap bitmap, int count, int lifetime,
+                   float minVelocityX, float maxVelocityX, float minVelocityY, float maxVelocityY,
+                   float maxRotationSpeed, float minScale, float maxScale) {
+        this.bitmap = bitmap;
+        this.count = Math.max(0, Math.min(MAX_PARTICLE_COUNT, count));
+        this.lifetime = (lifetime > 0 ? lifetime : DEFAULT_LIFETIME) / 1000f;
+        this.minVelocityX = minVelocityX;
+        this.maxVelocityX = maxVelocityX;
+        this.minVelocityY = minVelocityY;
+        this.maxVelocityY = maxVelocityY;
+        this.maxRotationSpeed = Math.abs(maxRotationSpeed);
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        halfWidth = bitmap.getWidth() / 2f;
+        halfHeight = bitmap.getHeight() / 2f;
+        paint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+
+        positionX = new float[this.count];
+        positionY = new float[this.count];
+        velocityX = new float[this.count];
+        velocityY = new float[this.count];
+        rotation = new float[this.count];
+        rotationSpeed = new float[this.count];
+        scale = new float[this.count];
+        age = new float[this.count];
+        vertices = new float[this.count * VERTICES_PER_PARTICLE * 2];
+        textureCoordinates = new float[this.count * VERTICES_PER_PARTICLE * 2];
+        colors = new int[this.count * VERTICES_PER_PARTICLE];
+
+        float width = bitmap.getWidth();
+        float height = bitmap.getHeight();
+        float[] quad = {0, 0, width, 0, width, height, 0, 0, width, height, 0, height};
+        for (int i = 0; i < this.count; i++) {
+            System.arraycopy(quad, 0, textureCoordinates, i * quad.length, quad.length);
+        }
+    }
+
+    /**
+     * Respawn all the instances inside the new area, with their ages spread over the lifetime.
+     * */
+    void setBounds(Rect area) {
+        bounds.set(area);
+        for (int i = 0; i < count; i++) {
+            spawn(i);
+            age[i] = random.nextFloat() * lifetime;
+        }
+        update(0f);
+    }
+
+    /**
+     * Advance all the instances and rebuild the vertex arrays in one pass.
+     * */
+    void update(float deltaSeconds) {
+        float step = Math.min(MAX_STEP_SECONDS, Math.max(0f, deltaSeconds));
+        for (int i = 0; i < count; i++) {
+            age[i] += step;
+            if (age[i] >= lifetime) {
+                spawn(i);
+            }
+            positionX[i] += velocityX[i] * step;
+            positionY[i] += velocityY[i] * step;
+            rotation[i] += rotationSpeed[i] * step;
+
+            double radians = Math.toRadians(rotation[i]);
+            float cos = (float) Math.cos(radians) * scale[i];
+            float sin = (float) Math.sin(radians) * scale[i];
+            float x = positionX[i];
+            float y = positionY[i];
+            //Corners of the rotated and scaled quad, in the order of textureCoordinates
+            float leftTopX = x - halfWidth * cos + halfHeight * sin;
+            float leftTopY = y - halfWidth * sin - halfHeight * cos;
+            float rightTopX = x + halfWidth * cos + halfHeight * sin;
+            float rightTopY = y + halfWidth * sin - halfHeight * cos;
+            float rightBottomX = x + halfWidth * cos - halfHeight * sin;
+            float rightBottomY = y + halfWidth * sin + halfHeight * cos;
+            float leftBottomX = x - halfWidth * cos - halfHeight * sin;
+            float leftBottomY = y - halfWidth * sin + halfHeight * cos;
+            int v = i * VERTICES_PER_PARTICLE * 2;
+            vertices[v] = leftTopX;
+            vertices[v + 1] = leftTopY;
+            vertices[v + 2] = rightTopX;
+            vertices[v + 3] = rightTopY;
+            vertices[v + 4] = rightBottomX;
+            vertices[v + 5] = rightBottomY;
+            vertices[v + 6] = leftTopX;
+            vertices[v + 7] = leftTopY;
+            vertices[v + 8] = rightBottomX;
+            vertices[v + 9] = rightBottomY;
+            vertices[v + 10] = leftBottomX;
+            vertices[v + 11] = leftBottomY;
+
+            //Fade in at the start of the lifetime and out along the rest of it
+            float life = Math.min(1f, age[i] / lifetime);
+            float alpha = life < FADE_IN_FRACTION ? life / FADE_IN_FRACTION : (1f - life) / (1f - FADE_IN_FRACTION);
+            int color = Color.argb((int) (255 * alpha), 255, 255, 255);
+            int c = i * VERTICES_PER_PARTICLE;
+            colors[c] = color;
+            colors[c + 1] = color;
+            colors[c + 2] = color;
+            colors[c + 3] = color;
+            colors[c + 4] = color;
+            colors[c + 5] = color;
+        }
+    }
+
+    /**
+     * @param hostPaint Paint of the host, whose alpha and color filter apply to all the instances.
+     * */
+    void draw(Canvas canvas, Paint hostPaint) {
+        if (count == 0) {
+            return;
+        }
+        int hostAlpha = hostPaint.getAlpha();
+        paint.setAlpha(hostAlpha);
+        paint.setColorFilter(hostPaint.getColorFilter());
+        int saveCount = canvas.save();
+        canvas.clipRect(bounds);
+        //drawVertices is only hardware accelerated since API 29
+        if (!canvas.isHardwareAccelerated() || Build.VERSION.SDK_INT >= 29) {
+            canvas.drawVertices(Canvas.VertexMode.TRIANGLES, vertices.length, vertices, 0,
+                    textureCoordinates, 0, colors, 0, null, 0, 0, paint);
+        } else if (prepareFallback()) {
+            //The host alpha and color filter are applied once by the blit rather than per vertex
+            paint.setAlpha(255);
+            paint.setColorFilter(null);
+            fallbackBitmap.eraseColor(Color.TRANSPARENT);
+            fallbackCanvas.drawVertices(Canvas.VertexMode.TRIANGLES, vertices.length, vertices, 0,
+                    textureCoordinates, 0, colors, 0, null, 0, 0, paint);
+            fallbackPaint.setAlpha(hostAlpha);
+            fallbackPaint.setColorFilter(hostPaint.getColorFilter());
+            canvas.drawBitmap(fallbackBitmap, bounds.left, bounds.top, fallbackPaint);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * @return False if the layer area is empty and there is nothing to draw into.
+     * */
+    private boolean prepareFallback() {
+        if (bounds.isEmpty()) {
+            return false;
+        }
+        if (fallbackBitmap == null || fallbackBitmap.getWidth() != bounds.width() || fallbackBitmap.getHeight() != bounds.height()) {
+            if (fallbackBitmap != null) {
+                fallbackBitmap.recycle();
+            }
+            fallbackBitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+            fallbackCanvas = new Canvas(fallbackBitmap);
+            //Vertices are in the coordinates of the host
+            fallbackCanvas.translate(-bounds.left, -bounds.top);
+            fallbackPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        }
+        return true;
+    }
+
+    private void spawn(int i) {
+        positionX[i] = bounds.left + random.nextFloat() * bounds.width();
+        positionY[i] = bounds.top + random.nextFloat() * bounds.height();
+        velocityX[i] = minVelocityX + random.nextFloat() * (maxVelocityX - minVelocityX);
+        velocityY[i] = minVelocityY + random.nextFloat() * (maxVelocityY - minVelocityY);
+        rotation[i] = 0f;
+        rotationSpeed[i] = (random.nextFloat() * 2f - 1f) * maxRotationSpeed;
+        scale[i] = minScale + random.nextFloat() * (maxScale - minScale);
+        age[i] = 0f;
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.troy.animatedlayers;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of layers decoded and laid out in the background by {@link AnimatedLayerView#prepare(List, int, int)}
+ * or {@link AnimatedLayerDrawable#prepare(List, int, int)}.
+ * All the methods must be called on the UI thread.
+ */
+
+public class PreparedScene {
+    public interface OnPreparedListener {
+        void onScenePrepared(PreparedScene scene);
+
+        /**
+         * @param error What a layer of the scene failed with, e.g. a missing or undecodable resource.
+         * */
+        void onSceneFailed(PreparedScene scene, RuntimeException error);
+    }
+
+    private final int width;
+    private final int height;
+    private ArrayList<LayerEngine.Layer> layers;
+    private boolean prepared = false;
+    private boolean released = false;
+    private RuntimeException error;
+    private OnPreparedListener onPreparedListener;
+    LayerEngine pendingEngine;
+
+    PreparedScene(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isPrepared() {
+        return prepared;
+    }
+
+    /**
+     * @return true if the preparation failed, such a scene is never prepared and swapping it in does nothing.
+     * */
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    @Nullable
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * @param listener Called once the scene is prepared or failed, or right away if it already is.
+     * */
+    public void setOnPreparedListener(@Nullable OnPreparedListener listener) {
+        onPreparedListener = listener;
+        if (listener == null) {
+            return;
+        }
+        if (prepared) {
+            listener.onScenePrepared(this);
+        } else if (error != null) {
+            listener.onSceneFailed(this, error);
+        }
+    }
+
+    /**
+     * Release the decoded sources of a scene which will not be swapped in.
+     * */
+    public void release() {
+        released = true;
+        pendingEngine = null;
+        ArrayList<LayerEngine.Layer> unused = consumeLayers();
+        if (unused != null) {
+            for (LayerEngine.Layer layer : unused) {
+                layer.destroy();
+            }
+        }
+    }
+
+    ArrayList<LayerEngine.Layer> consumeLayers() {
+        ArrayList<LayerEngine.Layer> result = layers;
+        layers = null;
+        return result;
+    }
+
+    void onFailed(RuntimeException failure) {
+        error = failure;
+        if (pendingEngine != null) {
+            pendingEngine.cancelSwap(this);
+        }
+        if (!released && onPreparedListener != null) {
+            onPreparedListener.onSceneFailed(this, failure);
+        }
+    }
+
+    void onPrepared(ArrayList<LayerEngine.Layer> preparedLayers) {
+        layers = preparedLayers;
+        prepared = true;
+        if (released) {
+            release();
+            return;
+        }
+        if (pendingEngine != null) {
+            pendingEngine.swapScene(this);
+        }
+        if (onPreparedListener != null) {
+            onPreparedListener.onScenePrepared(this);
+        }
+    }
+}
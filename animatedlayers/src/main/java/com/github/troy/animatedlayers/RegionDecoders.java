@@ -0,0 +1,67 @@
+package com.github.troy.animatedlayers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers for decoding regions straight into reusable bitmaps on {@link LayerWorker}.
+ */
+
+final class RegionDecoders {
+    private RegionDecoders() {
+    }
+
+    /**
+     * Decode the region into the top left corner of the given bitmap, reusing its memory whenever the device allows.
+     * The region is subsampled by options.inSampleSize.
+     * @param canvas A canvas owned by the calling worker task, used when the bitmap can not be reused directly.
+     * @return false if the region could not be decoded.
+     * */
+    static boolean decodeInto(BitmapRegionDecoder decoder, Rect region, BitmapFactory.Options options, Bitmap into, Canvas canvas) {
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = null;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        //Only reused when the output size is exact, otherwise a newer decoder would reconfigure the bitmap
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && region.width() % sampleSize == 0 && region.height() % sampleSize == 0
+                && region.width() / sampleSize == into.getWidth() && region.height() / sampleSize == into.getHeight()) {
+            options.inBitmap = into;
+        }
+        Bitmap decoded;
+        try {
+            decoded = decoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            //The bitmap can not be reused on this device, fall back to a temporary one
+            options.inBitmap = null;
+            decoded = decoder.decodeRegion(region, options);
+        }
+        options.inBitmap = null;
+        if (decoded == null) {
+            return false;
+        }
+        if (decoded != into) {
+            canvas.setBitmap(into);
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            canvas.drawBitmap(decoded, 0, 0, null);
+            canvas.setBitmap(null);
+            decoded.recycle();
+        }
+        return true;
+    }
+
+    static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
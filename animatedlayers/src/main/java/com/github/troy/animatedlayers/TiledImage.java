@@ -0,0 +1,350 @@
+package com.github.troy.animatedlayers;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.DrawableRes;
+import android.support.v4.util.LongSparseArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Draws a very large image through square tiles decoded by {@link BitmapRegionDecoder}.
+ * Only the tiles intersecting the viewport, plus one tile ahead in the pan direction, are kept,
+ * and their bitmaps are recycled through a pool, so the memory depends on the view size instead of the image size.
+ * When the image is drawn scaled down, tiles are decoded with the matching inSampleSize,
+ * so a tile covers more of the image while its bitmap stays the same size.
+ * All the methods except the decoding tasks are called on the UI thread.
+ */
+
+class TiledImage {
+    static final int DEFAULT_TILE_SIZE = 256;
+    private static final int MAX_SAMPLE_SIZE = 32;
+
+    interface Callback {
+        /**
+         * Called on the UI thread when a tile becomes drawable.
+         * */
+        void onTileReady();
+    }
+
+    final int width;
+    final int height;
+    private final Resources resources;
+    private final int resId;
+    private final int tileSize;
+    private Callback callback;
+    private final LongSparseArray<Tile> tiles = new LongSparseArray<>();
+    private final ArrayList<Bitmap> pool = new ArrayList<>();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix inverse = new Matrix();
+    private final float[] matrixValues = new float[9];
+    private final RectF bounds = new RectF();
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+    private boolean repeatX;
+    private boolean repeatY;
+    private int prefetchX;
+    private int prefetchY;
+    private int generation;
+    private volatile boolean released = false;
+
+    //Only touched on LayerWorker
+    private BitmapRegionDecoder decoder;
+    private boolean decoderFailed = false;
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private final Canvas decodeCanvas = new Canvas();
+    private final Rect region = new Rect();
+
+    TiledImage(Resources resources, @DrawableRes int resId, int tileSize, Callback callback) {
+        this.resources = resources;
+        this.resId = resId;
+        this.tileSize = Math.max(1, tileSize);
+        this.callback = callback;
+        //Only the header is read here, the image itself is opened on the worker with the first tile
+        BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+        boundsOptions.inJustDecodeBounds = true;
+        InputStream inputStream = resources.openRawResource(resId);
+        BitmapFactory.decodeStream(inputStream, null, boundsOptions);
+        RegionDecoders.closeQuietly(inputStream);
+        width = Math.max(0, boundsOptions.outWidth);
+        height = Math.max(0, boundsOptions.outHeight);
+    }
+
+    /**
+     * @param callback Replaces the one given to the constructor, e.g. when a prepared scene is swapped into another host.
+     * */
+    void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * @param repeatX Whether the image wraps horizontally, same as {@link android.graphics.Shader.TileMode#REPEAT}.
+     * @param repeatY Whether the image wraps vertically.
+     * @param prefetchX 1 to prefetch one tile on the right side of the viewport, -1 for the left side, 0 for none.
+     * @param prefetchY 1 to prefetch one tile below the viewport, -1 above it, 0 for none.
+     * */
+    void configure(boolean repeatX, boolean repeatY, int prefetchX, int prefetchY) {
+        this.repeatX = repeatX;
+        this.repeatY = repeatY;
+        this.prefetchX = prefetchX;
+        this.prefetchY = prefetchY;
+    }
+
+    /**
+     * @param matrix Maps the image to the view, the same one a bitmap shader would use.
+     * @param target The area of the view to draw in.
+     * @param hostPaint Paint of the host, whose alpha and color filter apply to the tiles as well.
+     * */
+    void draw(Canvas canvas, Matrix matrix, Rect target, Paint hostPaint) {
+        paint.setAlpha(hostPaint.getAlpha());
+        paint.setColorFilter(hostPaint.getColorFilter());
+        int needed = visitTiles(canvas, matrix, target, false);
+        if (needed < 0) {
+            return;
+        }
+
+        //Tiles out of the viewport go back to the pool, which never holds more than one viewport of bitmaps
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.generation != generation) {
+                tiles.removeAt(i);
+                releaseTile(tile);
+            }
+        }
+        while (pool.size() > needed) {
+            pool.remove(pool.size() - 1).recycle();
+        }
+    }
+
+    /**
+     * Called on {@link LayerWorker} before the image is handed to the UI thread,
+     * decodes the tiles the first {@link #draw(Canvas, Matrix, Rect, Paint)} with the same arguments needs,
+     * so the image does not show up blank at first.
+     * */
+    void decodeVisible(Matrix matrix, Rect target) {
+        visitTiles(null, matrix, target, true);
+    }
+
+    /**
+     * @param canvas The canvas to draw the ready tiles on, or null to only obtain the tiles.
+     * @param decodeNow true to decode the missing tiles on the calling thread instead of requesting them from the worker.
+     * @return The number of tiles the viewport needs, or -1 if nothing can be drawn.
+     * */
+    private int visitTiles(Canvas canvas, Matrix matrix, Rect target, boolean decodeNow) {
+        if (released || width == 0 || height == 0 || !matrix.invert(inverse)) {
+            return -1;
+        }
+        int sampleSize = sampleSize(matrix);
+        int span = tileSize * sampleSize;
+        bounds.set(target);
+        inverse.mapRect(bounds);
+        if (prefetchX > 0) {
+            bounds.right += span;
+        } else if (prefetchX < 0) {
+            bounds.left -= span;
+        }
+        if (prefetchY > 0) {
+            bounds.bottom += span;
+        } else if (prefetchY < 0) {
+            bounds.top -= span;
+        }
+        generation++;
+        int needed = 0;
+        int columns = (width + span - 1) / span;
+        int rows = (height + span - 1) / span;
+
+        if (canvas != null) {
+            canvas.save();
+            canvas.clipRect(target);
+            canvas.concat(matrix);
+        }
+        int periodStartX = repeatX ? (int) Math.floor(bounds.left / width) : 0;
+        int periodEndX = repeatX ? (int) Math.floor(bounds.right / width) : 0;
+        int periodStartY = repeatY ? (int) Math.floor(bounds.top / height) : 0;
+        int periodEndY = repeatY ? (int) Math.floor(bounds.bottom / height) : 0;
+        for (int periodX = periodStartX; periodX <= periodEndX; periodX++) {
+            float offsetX = periodX * (float) width;
+            int startColumn = Math.max(0, (int) Math.floor((bounds.left - offsetX) / span));
+            int endColumn = Math.min(columns - 1, (int) Math.floor((bounds.right - offsetX) / span));
+            for (int periodY = periodStartY; periodY <= periodEndY; periodY++) {
+                float offsetY = periodY * (float) height;
+                int startRow = Math.max(0, (int) Math.floor((bounds.top - offsetY) / span));
+                int endRow = Math.min(rows - 1, (int) Math.floor((bounds.bottom - offsetY) / span));
+                for (int column = startColumn; column <= endColumn; column++) {
+                    for (int row = startRow; row <= endRow; row++) {
+                        needed++;
+                        Tile tile = obtainTile(column, row, sampleSize, decodeNow);
+                        if (!tile.ready || canvas == null) {
+                            continue;
+                        }
+                        src.set(0, 0, tile.width, tile.height);
+                        dst.set(offsetX + column * span, offsetY + row * span,
+                                offsetX + column * span + tile.regionWidth, offsetY + row * span + tile.regionHeight);
+                        canvas.drawBitmap(tile.bitmap, src, dst, paint);
+                    }
+                }
+            }
+        }
+        if (canvas != null) {
+            canvas.restore();
+        }
+        return needed;
+    }
+
+    /**
+     * @return The largest power of 2 the image can be subsampled by without drawing it blurry with the given matrix.
+     * */
+    private int sampleSize(Matrix matrix) {
+        matrix.getValues(matrixValues);
+        float scaleX = (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]);
+        float scaleY = (float) Math.hypot(matrixValues[Matrix.MSKEW_X], matrixValues[Matrix.MSCALE_Y]);
+        float scale = Math.max(scaleX, scaleY);
+        int sampleSize = 1;
+        while (sampleSize < MAX_SAMPLE_SIZE && sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (int i = 0; i < tiles.size(); i++) {
+            tiles.valueAt(i).cancelled = true;
+        }
+        tiles.clear();
+        pool.clear();
+        LayerWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (decoder != null) {
+                    decoder.recycle();
+                    decoder = null;
+                }
+            }
+        });
+    }
+
+    private Tile obtainTile(int column, int row, int sampleSize, boolean decodeNow) {
+        //Tiles of different sample sizes never share a key, the stale ones are dropped after the next draw
+        long key = ((long) Integer.numberOfTrailingZeros(sampleSize) << 56) | ((long) row << 28) | column;
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            Bitmap bitmap = pool.isEmpty() ? Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888)
+                    : pool.remove(pool.size() - 1);
+            int span = tileSize * sampleSize;
+            tile = new Tile(column, row, sampleSize, bitmap,
+                    Math.min(span, width - column * span), Math.min(span, height - row * span));
+            tiles.put(key, tile);
+            if (decodeNow) {
+                tile.ready = decodeTile(tile);
+                tile.failed = !tile.ready;
+            } else {
+                requestDecode(tile);
+            }
+        }
+        tile.generation = generation;
+        return tile;
+    }
+
+    private void releaseTile(Tile tile) {
+        if (tile.ready || tile.failed) {
+            pool.add(tile.bitmap);
+        } else {
+            //Still decoding, the bitmap is handed back in onTileDecoded
+            tile.cancelled = true;
+        }
+    }
+
+    private void requestDecode(final Tile tile) {
+        LayerWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean decoded = decodeTile(tile);
+                LayerWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileDecoded(tile, decoded);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean decodeTile(Tile tile) {
+        if (tile.cancelled || released) {
+            return false;
+        }
+        if (decoder == null) {
+            if (decoderFailed) {
+                return false;
+            }
+            InputStream inputStream = resources.openRawResource(resId);
+            try {
+                decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            } catch (IOException e) {
+                decoderFailed = true;
+                return false;
+            } finally {
+                RegionDecoders.closeQuietly(inputStream);
+            }
+        }
+        int span = tileSize * tile.sampleSize;
+        region.set(tile.column * span, tile.row * span,
+                tile.column * span + tile.regionWidth, tile.row * span + tile.regionHeight);
+        decodeOptions.inSampleSize = tile.sampleSize;
+        return RegionDecoders.decodeInto(decoder, region, decodeOptions, tile.bitmap, decodeCanvas);
+    }
+
+    private void onTileDecoded(Tile tile, boolean decoded) {
+        if (tile.cancelled) {
+            if (!released) {
+                pool.add(tile.bitmap);
+            }
+            return;
+        }
+        tile.ready = decoded;
+        tile.failed = !decoded;
+        if (decoded) {
+            callback.onTileReady();
+        }
+    }
+
+    private static class Tile {
+        final int column;
+        final int row;
+        final int sampleSize;
+        final Bitmap bitmap;
+        //Size of the covered part of the image, and the size of the decoded pixels in the bitmap
+        final int regionWidth;
+        final int regionHeight;
+        final int width;
+        final int height;
+        boolean ready = false;
+        boolean failed = false;
+        volatile boolean cancelled = false;
+        int generation;
+
+        Tile(int column, int row, int sampleSize, Bitmap bitmap, int regionWidth, int regionHeight) {
+            this.column = column;
+            this.row = row;
+            this.sampleSize = sampleSize;
+            this.bitmap = bitmap;
+            this.regionWidth = regionWidth;
+            this.regionHeight = regionHeight;
+            this.width = (regionWidth + sampleSize - 1) / sampleSize;
+            this.height = (regionHeight + sampleSize - 1) / sampleSize;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.github.troy.animatedlayers;
+
+import android.animation.ValueAnimator;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress benchmark of the per-frame layer work, from 10 to 1000 layers.
+ * The struct-of-arrays {@link LayerStore} is measured against the object per layer design it replaced,
+ * where every layer had its own animator callback updating its own fields and its own {@link Matrix}
+ * built by setTranslate/postScale/postRotate while drawing.
+ * Both sides are driven by hand with a fixed frame time, so the numbers only contain the layer work.
+ * Times run on the JVM with Robolectric, they compare the two designs rather than predict device timings.
+ * NOTE: The benchmark is skipped unless the benchmark system property is true, which ./gradlew test -Pbenchmark sets,
+ * so the regular test runs stay fast. The matrix check always runs.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class LayerStoreBenchmarkTest {
+    private static final int[] LAYER_COUNTS = {10, 100, 1000};
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 500;
+    private static final long FRAME_MILLIS = 16;
+    private static final int[] TYPES = {
+            AnimatedLayerView.TRANSLATE_START, AnimatedLayerView.TRANSLATE_DOWN,
+            AnimatedLayerView.ROTATE_CLOCKWISE, AnimatedLayerView.SCALE};
+
+    @Test
+    public void perFrameCost() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        for (int count : LAYER_COUNTS) {
+            long storeNanos = measureStore(count);
+            long legacyNanos = measureLegacy(count);
+            System.out.println(String.format(Locale.US,
+                    "%4d layers: store %8.1f us/frame, object per layer %8.1f us/frame",
+                    count, storeNanos / 1000f, legacyNanos / 1000f));
+            assertTrue(storeNanos > 0 && legacyNanos > 0);
+        }
+    }
+
+    @Test
+    public void storeMatrixMatchesPerLayerMatrix() {
+        LayerStore store = new LayerStore();
+        Rect target = new Rect(10, 20, 310, 220);
+        int slot = store.obtain();
+        store.translateX[slot] = 12f;
+        store.translateY[slot] = -7f;
+        store.scaleX[slot] = 0.8f;
+        store.scaleY[slot] = 1.5f;
+        store.rotateDegree[slot] = 30f;
+        store.setTarget(slot, target, 0.25f, -1f);
+        store.update(0, 0f);
+
+        Matrix expected = new Matrix();
+        expected.setTranslate(12f, -7f);
+        expected.postScale(0.8f, 1.5f, target.left + target.width() * 0.25f, target.centerY());
+        expected.postRotate(30f, target.centerX(), target.centerY());
+        float[] expectedValues = new float[9];
+        expected.getValues(expectedValues);
+        float[] actualValues = new float[9];
+        store.getMatrix(slot, new Matrix()).getValues(actualValues);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(expectedValues[i], actualValues[i], 1e-3f);
+        }
+    }
+
+    private long measureStore(int count) {
+        LayerStore store = new LayerStore();
+        Matrix drawMatrix = new Matrix();
+        int[] slots = new int[count];
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            slots[i] = store.obtain();
+            int type = TYPES[i % TYPES.length];
+            store.setTarget(slots[i], randomTarget(random), -1f, -1f);
+            store.setAnimation(slots[i], type, LayerStore.DRIVER_TIME, interval(type), 1f,
+                    1000 + random.nextInt(2000), type == AnimatedLayerView.SCALE ? ValueAnimator.REVERSE : ValueAnimator.RESTART,
+                    ValueAnimator.INFINITE, null);
+        }
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            storeFrame(store, slots, drawMatrix);
+        }
+        long start = System.nanoTime();
+        for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+            storeFrame(store, slots, drawMatrix);
+        }
+        return (System.nanoTime() - start) / MEASURED_FRAMES;
+    }
+
+    private static void storeFrame(LayerStore store, int[] slots, Matrix drawMatrix) {
+        assertTrue(store.update(FRAME_MILLIS, 0f));
+        //What LayerEngine.draw does for every layer
+        for (int slot : slots) {
+            store.getMatrix(slot, drawMatrix);
+        }
+    }
+
+    private long measureLegacy(int count) {
+        LegacyLayer[] layers = new LegacyLayer[count];
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            int type = TYPES[i % TYPES.length];
+            layers[i] = new LegacyLayer(type, interval(type), 1000 + random.nextInt(2000), randomTarget(random));
+        }
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            legacyFrame(layers);
+        }
+        long start = System.nanoTime();
+        for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+            legacyFrame(layers);
+        }
+        return (System.nanoTime() - start) / MEASURED_FRAMES;
+    }
+
+    private static void legacyFrame(LegacyLayer[] layers) {
+        //One animator callback per layer, each one asking for its own redraw
+        for (LegacyLayer layer : layers) {
+            layer.onAnimationUpdate(FRAME_MILLIS);
+        }
+        for (LegacyLayer layer : layers) {
+            layer.getMatrix();
+        }
+    }
+
+    private static float interval(int type) {
+        if (type == AnimatedLayerView.ROTATE_CLOCKWISE) {
+            return 360f;
+        }
+        return type == AnimatedLayerView.SCALE ? 1f : 400f;
+    }
+
+    private static Rect randomTarget(Random random) {
+        int left = random.nextInt(500);
+        int top = random.nextInt(500);
+        return new Rect(left, top, left + 100 + random.nextInt(500), top + 100 + random.nextInt(500));
+    }
+
+    /**
+     * The per-frame part of a layer before {@link LayerStore}, see the update listener and getMatrix() it had.
+     */
+    private static class LegacyLayer {
+        final int animationType;
+        final float animationInterval;
+        final long duration;
+        final Rect targetRect;
+        final Matrix matrix = new Matrix();
+        long playTime = 0;
+        float lastFraction = 0f;
+        float translateX = 0f;
+        float translateY = 0f;
+        float rotateDegree = 0f;
+        float scaleX = 1f;
+        float scaleY = 1f;
+        float scalePivotX = -1f;
+        float scalePivotY = -1f;
+        int invalidations = 0;
+
+        LegacyLayer(int animationType, float animationInterval, long duration, Rect targetRect) {
+            this.animationType = animationType;
+            this.animationInterval = animationInterval;
+            this.duration = duration;
+            this.targetRect = targetRect;
+        }
+
+        void onAnimationUpdate(long deltaMillis) {
+            playTime += deltaMillis;
+            float fraction = (playTime % duration) / (float) duration;
+            float change = fraction > lastFraction ? (fraction - lastFraction) * animationInterval : fraction * animationInterval;
+            lastFraction = fraction;
+            if (animationType == AnimatedLayerView.TRANSLATE_START) {
+                translateX -= change;
+            } else if (animationType == AnimatedLayerView.TRANSLATE_DOWN) {
+                translateY += change;
+            } else if (animationType == AnimatedLayerView.ROTATE_CLOCKWISE) {
+                rotateDegree += change;
+            } else if (animationType == AnimatedLayerView.SCALE) {
+                scaleX = 1f + fraction;
+                scaleY = 1f + fraction;
+            }
+            invalidations++;
+        }
+
+        Matrix getMatrix() {
+            matrix.reset();
+            matrix.setTranslate(translateX, translateY);
+            float pivotX = scalePivotX == -1 ? targetRect.centerX() : targetRect.left + targetRect.width()*scalePivotX;
+            float pivotY = scalePivotY == -1 ? targetRect.centerY() : targetRect.top + targetRect.height()*scalePivotY;
+            matrix.postScale(scaleX, scaleY, pivotX, pivotY);
+            matrix.postRotate(rotateDegree, targetRect.centerX(), targetRect.centerY());
+            return matrix;
+        }
+    }
+}